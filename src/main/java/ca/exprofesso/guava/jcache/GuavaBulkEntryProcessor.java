@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.Collection;
+
+import javax.cache.processor.EntryProcessorException;
+
+/**
+ * Processes all the entries of a batch in a single call, see {@link GuavaCache#invokeBulk}.
+ * <p>
+ * Updates and removals are applied atomically per key once the processor returns. If some entries were modified
+ * concurrently in the meantime, the processor is called again with only those entries; the others are already
+ * written, and stay so if that call throws.
+ */
+public interface GuavaBulkEntryProcessor<K, V>
+{
+    public abstract void process(Collection<GuavaMutableEntry<K, V>> entries, Object... arguments)
+        throws EntryProcessorException;
+}
@@ -16,19 +16,33 @@
 package ca.exprofesso.guava.jcache;
 
 import java.lang.management.ManagementFactory;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.cache.CacheException;
 import javax.cache.CacheManager;
@@ -38,17 +52,18 @@ import javax.cache.configuration.Configuration;
 import javax.cache.configuration.Factory;
 import javax.cache.event.CacheEntryCreatedListener;
 import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryEventFilter;
 import javax.cache.event.CacheEntryExpiredListener;
 import javax.cache.event.CacheEntryListener;
-import javax.cache.event.CacheEntryListenerException;
 import javax.cache.event.CacheEntryRemovedListener;
 import javax.cache.event.CacheEntryUpdatedListener;
 import javax.cache.event.EventType;
 import javax.cache.expiry.Duration;
+import javax.cache.expiry.EternalExpiryPolicy;
 import javax.cache.expiry.ExpiryPolicy;
-import javax.cache.expiry.ModifiedExpiryPolicy;
 import javax.cache.expiry.TouchedExpiryPolicy;
 import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
 import javax.cache.integration.CompletionListener;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
@@ -57,107 +72,304 @@ import javax.management.MBeanException;
 import javax.management.ObjectName;
 import javax.management.OperationsException;
 
+import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheBuilderSpec;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
-import com.google.common.collect.Sets;
-
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * JSR-107 cache on top of a Guava {@link Cache}.
+ * <p>
+ * CREATED, UPDATED and REMOVED events are enqueued for the asynchronous listeners under the lock of the key, so that
+ * the events of a key are delivered in the order of its writes; the synchronous listeners are called once that lock is
+ * released. Values loaded by read-through ({@link #get(Object)}, {@link #getAll(Set)}) emit no CREATED event, those
+ * loaded by {@link #loadAll(Set, boolean, CompletionListener)} or by an entry processor do. {@link #clear()} and
+ * {@link #close()} emit no REMOVED event.
+ */
 public class GuavaCache<K, V>
     implements javax.cache.Cache<K, V>, RemovalListener<K, V>
 {
+    private static final int MINIMUM_PARTITION_SIZE = 64;
+
     private final String cacheName;
-    private final CompleteConfiguration<K, V> configuration;
+    private final GuavaConfiguration<K, V> configuration;
     private final CacheManager cacheManager;
 
     private final Cache<K, V> cache;
     private final ConcurrentMap<K, V> view;
 
-    private final Set<CacheEntryListenerConfiguration<K, V>> cacheEntryListenerConfigurations;
+    private final CacheLoader<K, V> cacheLoader;
+    private final GuavaCacheLoader<K, V> guavaCacheLoader;
+
+    // null unless bounded by weight
+    private final GuavaCacheWeigher<K, V> weigher;
+
+    // in the unit of getTotalWeight(): lowered by the memory governor under heap pressure, allotted by the budget of
+    // the manager, and the lower of the two
+    private volatile long capacity = Long.MAX_VALUE;
+    private volatile long allotment = Long.MAX_VALUE;
+    private volatile long limit = Long.MAX_VALUE;
+
+    // hits counted for the budget of the manager whether statistics are enabled or not, null without a budget
+    private final LongAdder hits;
+
+    // entries being evicted to honor the capacity, told apart from explicit removals in onRemoval
+    private final ConcurrentMap<K, V> shedding = new ConcurrentHashMap<>();
+
+    // the clock of trim(): keys passed once by its hand without being read since, shed when it comes back to them
+    private final Set<K> cold = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+    // guarded by trimming
+    private Iterator<Map.Entry<K, V>> hand;
+
+    private final List<ListenerRegistration<K, V>> listenerRegistrations = new ArrayList<>();
+
+    // copy-on-write dispatch tables, indexed by event type
+    private volatile ListenerRegistration<K, V>[][] listeners;
+
+    private final GuavaCacheStatistics statistics = new GuavaCacheStatistics();
+    private final GuavaCacheLatencies latencies;
+    private final GuavaCacheRollingStatistics rollingStatistics;
+
+    // switched at runtime by the cache manager
+    private volatile boolean statisticsEnabled;
+    private final boolean expireAfterAccess;
+
+    // per-entry expiration, for the policies that Guava cannot express (null otherwise)
+    private final ExpiryPolicy variableExpiry;
+    private final Ticker ticker;
+    private final GuavaTimingWheel<K, V> timingWheel;
+    private final ConcurrentMap<K, GuavaTimingWheel.Timer<K, V>> timers;
+
+    // null unless configured, holds the entries evicted from the heap
+    private final GuavaOffHeapStore<K> offHeapStore;
+
+    // the time left to an entry expired by Guava itself is unknown, it is given a full lifetime once off-heap
+    private final long offHeapLifetime;
+
+    // TinyLFU admission, null unless enabled: the cache counts as full a bit before maximumSize since Guava evicts
+    // per segment, and the last key evicted by size stands for the next victim, which Guava does not expose
+    private final GuavaFrequencySketch sketch;
+    private final long admissionThreshold;
+    private volatile Object victim;
+
+    // null unless the eviction is cost-aware, the cache is then trimmed to maximumSize in place of Guava
+    private final GuavaCacheCosts<K> costs;
+    private final long costAwareCapacity;
+
+    // null unless the cache has a pinned quota; the bound of maximumSize or maximumWeight then only applies to the
+    // unpinned entries, and is kept by the cache rather than by Guava, as it is for a cache with an off-heap tier
+    private final Set<K> pinned;
+    private final long pinnedQuota;
+    private final long unpinnedCapacity;
 
     private final AtomicBoolean closed = new AtomicBoolean();
 
-    private final ReentrantLock entryProcessorLock = new ReentrantLock(true);
+    private volatile Executor entryProcessorExecutor = ForkJoinPool.commonPool();
 
     public GuavaCache(String cacheName, CompleteConfiguration<K, V> configuration, CacheManager cacheManager)
     {
         this.cacheName = cacheName;
-        this.configuration = configuration;
+        this.configuration = new GuavaConfiguration<>(configuration);
         this.cacheManager = cacheManager;
 
-        String properties = cacheManager.getProperties().toString();
+        this.ticker = ((GuavaCacheManager) cacheManager).getTicker();
+        this.hits = (((GuavaCacheManager) cacheManager).getBudget() != null) ? new LongAdder() : null;
 
-        CacheBuilderSpec cacheBuilderSpec = CacheBuilderSpec.parse(properties.substring(1, properties.length() - 1));
+        GuavaStorageEngine storageEngine = ((GuavaCacheManager) cacheManager).getStorageEngine(cacheName);
 
-        CacheBuilder cacheBuilder = CacheBuilder.from(cacheBuilderSpec);
+        this.pinnedQuota = this.configuration.getPinnedQuota();
+        this.pinned = (pinnedQuota > 0) ? ConcurrentHashMap.newKeySet() : null;
 
-        ExpiryPolicy expiryPolicy = configuration.getExpiryPolicyFactory().create();
+        String maximumWeight = cacheManager.getProperties().getProperty("maximumWeight");
+        String maximumSize = cacheManager.getProperties().getProperty("maximumSize");
 
-        if (expiryPolicy instanceof ModifiedExpiryPolicy) // == Guava expire after write
-        {
-            Duration d = expiryPolicy.getExpiryForUpdate();
+        Factory<? extends Weigher<? super K, ? super V>> weigherFactory = this.configuration.getWeigherFactory();
 
-            cacheBuilder.expireAfterWrite(d.getDurationAmount(), d.getTimeUnit());
+        if (maximumWeight != null)
+        {
+            this.weigher = new GuavaCacheWeigher<>((weigherFactory != null) ? weigherFactory.create()
+                                                                            : GuavaSizeEstimator.INSTANCE,
+                                                   pinned);
         }
-        else if (expiryPolicy instanceof TouchedExpiryPolicy) // == Guava expire after access
+        else if (weigherFactory != null)
         {
-            Duration d = expiryPolicy.getExpiryForAccess();
-
-            cacheBuilder.expireAfterAccess(d.getDurationAmount(), d.getTimeUnit());
+            throw new IllegalArgumentException("A weigher requires maximumWeight!");
+        }
+        else if (pinned != null && maximumSize != null && !this.configuration.isCostAwareEvictionEnabled())
+        {
+            // a weight of one per entry, so that the pinned entries can be counted apart
+            this.weigher = new GuavaCacheWeigher<>((K key, V value) -> 1, pinned);
+        }
+        else
+        {
+            this.weigher = null;
         }
 
-        this.cacheEntryListenerConfigurations = Sets.newHashSet(configuration.getCacheEntryListenerConfigurations());
+        String specification = ((GuavaCacheManager) cacheManager).getCacheBuilderSpecification();
 
-        if (!this.cacheEntryListenerConfigurations.isEmpty())
+        // the weight charged is recorded with the value, which would then never be collected
+        if (weigher != null && Stream.of(specification.split(","))
+                                     .map(String::trim)
+                                     .anyMatch(s -> s.equals("weakKeys")
+                                                    || s.equals("weakValues")
+                                                    || s.equals("softValues")))
         {
-            cacheBuilder = cacheBuilder.removalListener(this);
+            throw new IllegalArgumentException("Weak or soft references cannot be weighed!");
         }
 
-        if (configuration.isManagementEnabled())
+        if (this.configuration.isCostAwareEvictionEnabled())
         {
-            GuavaCacheMXBean bean = new GuavaCacheMXBean(this);
-
-            try
-            {
-                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(bean.getObjectName()));
-            }
-            catch (OperationsException | MBeanException e)
+            if (maximumSize == null)
             {
-                throw new CacheException(e);
+                throw new IllegalArgumentException("Cost-aware eviction requires maximumSize!");
             }
+
+            this.costs = new GuavaCacheCosts<>();
+            this.costAwareCapacity = Long.parseLong(maximumSize.trim());
+            this.limit = costAwareCapacity;
+
+            // Guava must not evict in its own order
+            specification = Stream.of(specification.split(","))
+                                  .filter(s -> !s.trim().startsWith("maximumSize"))
+                                  .collect(Collectors.joining(","));
+        }
+        else
+        {
+            this.costs = null;
+            this.costAwareCapacity = Long.MAX_VALUE;
         }
 
-        if (configuration.isStatisticsEnabled())
+        long offHeapCapacity = this.configuration.getOffHeapCapacity();
+
+        this.offHeapStore = (offHeapCapacity > 0) ? new GuavaOffHeapStore<K>(offHeapCapacity) : null;
+
+        if ((pinned != null || offHeapStore != null) && costs == null && (maximumWeight != null || maximumSize != null))
+        {
+            // Guava cannot weigh an entry again without storing it, nor demote an entry under the lock that evicts it,
+            // so the bound is kept by the cache itself; Guava is left an unreachable maximumWeight if it weighs entries
+            this.unpinnedCapacity = Long.parseLong(((maximumWeight != null) ? maximumWeight : maximumSize).trim());
+
+            specification = Stream.concat(Stream.of(specification.split(","))
+                                                .filter(s -> !s.trim().isEmpty()
+                                                             && !s.trim().startsWith("maximumSize")
+                                                             && !s.trim().startsWith("maximumWeight")),
+                                          (weigher != null) ? Stream.of("maximumWeight=" + Long.MAX_VALUE)
+                                                            : Stream.<String>empty())
+                                  .collect(Collectors.joining(","));
+        }
+        else
         {
-            GuavaCacheStatisticsMXBean bean = new GuavaCacheStatisticsMXBean(this);
+            this.unpinnedCapacity = Long.MAX_VALUE;
+        }
 
-            try
-            {
-                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(bean.getObjectName()));
-            }
-            catch (OperationsException | MBeanException e)
+        ExpiryPolicy expiryPolicy = configuration.getExpiryPolicyFactory().create();
+
+        // the policies that Guava can express are left to engines that expire entries; not expire after write, which
+        // Guava restarts on every compute(), including those that only read the entry, such as a read-only invoke()
+        boolean nativeExpiry = storageEngine.isExpiring() && expiryPolicy instanceof TouchedExpiryPolicy;
+
+        // == Guava expire after access
+        Duration expireAfterAccess = nativeExpiry ? expiryPolicy.getExpiryForAccess() : null;
+
+        if (expiryPolicy instanceof EternalExpiryPolicy || nativeExpiry)
+        {
+            this.variableExpiry = null;
+            this.timingWheel = null;
+            this.timers = null;
+        }
+        else
+        {
+            this.variableExpiry = expiryPolicy;
+            this.timingWheel = new GuavaTimingWheel<>(ticker.read());
+            this.timers = new ConcurrentHashMap<>();
+        }
+
+        if (this.configuration.isAdmissionFilterEnabled())
+        {
+            if (maximumSize == null)
             {
-                throw new CacheException(e);
+                throw new IllegalArgumentException("The admission filter requires maximumSize!");
             }
 
-            cacheBuilder.recordStats();
+            long size = Long.parseLong(maximumSize.trim());
+
+            this.sketch = new GuavaFrequencySketch(size);
+            this.admissionThreshold = size - (size / 10);
+        }
+        else
+        {
+            this.sketch = null;
+            this.admissionThreshold = Long.MAX_VALUE;
+        }
+
+        if (expireAfterAccess != null)
+        {
+            this.offHeapLifetime = expireAfterAccess.getTimeUnit().toNanos(expireAfterAccess.getDurationAmount());
+        }
+        else
+        {
+            this.offHeapLifetime = 0L;
+        }
+
+        for (CacheEntryListenerConfiguration<K, V> listenerConfiguration
+                 : this.configuration.getCacheEntryListenerConfigurations())
+        {
+            listenerRegistrations.add(new ListenerRegistration<>(listenerConfiguration));
         }
 
+        publishListeners();
+
+        // latency histograms start on with statistics, then are switched through their own bean, which lives as long as
+        // the cache so that they can be turned on whether statistics are or not
+        this.latencies = new GuavaCacheLatencies(this, configuration.isStatisticsEnabled());
+        this.rollingStatistics = new GuavaCacheRollingStatistics(this, statistics);
+
+        this.statisticsEnabled = configuration.isStatisticsEnabled();
+
         if (configuration.isReadThrough())
         {
             Factory<CacheLoader<K, V>> factory = configuration.getCacheLoaderFactory();
 
-            this.cache = (Cache<K, V>) cacheBuilder.build(new GuavaCacheLoader<>(factory.create()));
+            this.cacheLoader = factory.create();
+            this.guavaCacheLoader = new GuavaCacheLoader<>(cacheLoader, this);
         }
         else
         {
-            this.cache = (Cache<K, V>) cacheBuilder.build();
+            this.cacheLoader = null;
+            this.guavaCacheLoader = null;
         }
 
+        // the removal listener is always installed so that listeners can be registered later on
+        this.cache = storageEngine.create
+        (
+            new GuavaStorageSettings<>(specification, ticker, weigher, null, expireAfterAccess,
+                                       this, guavaCacheLoader)
+        );
+
         this.view = cache.asMap();
+
+        this.expireAfterAccess = (expireAfterAccess != null);
+
+        // last, so that a cache that cannot be built leaves no bean behind
+        if (configuration.isManagementEnabled())
+        {
+            registerManagementMBeans();
+        }
+
+        registerMBean(latencies, latencies.getObjectName());
+
+        if (configuration.isStatisticsEnabled())
+        {
+            registerStatisticsMBeans();
+        }
     }
 
     @Override
@@ -170,19 +382,62 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
-        if (configuration.isReadThrough())
+        if (sketch != null)
         {
-            try
+            sketch.increment(key);
+        }
+
+        long start = startTime();
+
+        if (start == 0L && variableExpiry == null && offHeapStore == null && costs == null && hits == null)
+        {
+            V value = getValue(key);
+
+            warm(key);
+            enforceLimit();
+
+            return value;
+        }
+
+        expireIfDue(key);
+
+        V value = cache.getIfPresent(key);
+
+        boolean hit = (value != null);
+
+        if (hit)
+        {
+            touch(key);
+            countHits(1);
+        }
+        else if (cacheLoader != null)
+        {
+            value = getValue(key);
+
+            // a value that was not admitted is not in the cache
+            if (value != null && (sketch == null || view.containsKey(key)))
             {
-                return ((LoadingCache<K, V>) cache).get(key);
+                scheduleExpiry(key, value, null);
             }
-            catch (ExecutionException e)
+
+            enforceLimit();
+        }
+
+        if (start != 0L)
+        {
+            long elapsed = System.nanoTime() - start;
+
+            if (statisticsEnabled)
             {
-                throw new CacheException(e);
+                recordGet(hit);
+
+                statistics.recordGetTime(elapsed);
             }
+
+            latencies.recordGet(hit, elapsed);
         }
 
-        return cache.getIfPresent(key);
+        return value;
     }
 
     @Override
@@ -195,19 +450,81 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
-        if (configuration.isReadThrough())
+        if (sketch != null)
         {
-            try
+            for (K key : keys)
             {
-                return ((LoadingCache<K, V>) cache).getAll(keys);
+                sketch.increment(key);
             }
-            catch (ExecutionException e)
+        }
+
+        long start = startTime();
+
+        if (start == 0L && variableExpiry == null && offHeapStore == null && costs == null && hits == null)
+        {
+            Map<K, V> values = getAllValues(keys);
+
+            for (K key : keys)
             {
-                throw new CacheException(e);
+                warm(key);
+            }
+
+            enforceLimit();
+
+            return values;
+        }
+
+        for (K key : keys)
+        {
+            expireIfDue(key);
+        }
+
+        Map<K, V> present = cache.getAllPresent(keys);
+        Map<K, V> values = present;
+
+        boolean hit = (present.size() == keys.size());
+
+        if (statisticsEnabled)
+        {
+            statistics.recordHits(present.size());
+            statistics.recordMisses(keys.size() - present.size());
+        }
+
+        for (K key : present.keySet())
+        {
+            touch(key);
+        }
+
+        countHits(present.size());
+
+        if (!hit && cacheLoader != null)
+        {
+            values = getAllValues(keys);
+
+            for (Map.Entry<K, V> entry : values.entrySet())
+            {
+                if (!present.containsKey(entry.getKey()))
+                {
+                    scheduleExpiry(entry.getKey(), entry.getValue(), null);
+                }
             }
+
+            enforceLimit();
         }
 
-        return cache.getAllPresent(keys);
+        if (start != 0L)
+        {
+            long elapsed = System.nanoTime() - start;
+
+            if (statisticsEnabled)
+            {
+                statistics.recordGetTime(elapsed);
+            }
+
+            latencies.recordGet(hit, elapsed);
+        }
+
+        return values;
     }
 
     @Override
@@ -220,6 +537,8 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
+        expireIfDue(key);
+
         return view.containsKey(key);
     }
 
@@ -233,88 +552,85 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        if (cacheLoader == null)
+        {
+            cl.onCompletion();
 
-        executorService.submit
-        (
-            new Runnable()
+            return;
+        }
+
+        List<K> missing = new ArrayList<>(keys.size());
+
+        for (K key : keys)
+        {
+            if (key == null)
             {
-                @Override
-                public void run()
-                {
-                    try
-                    {
-                        if (cache instanceof LoadingCache)
-                        {
-                            LoadingCache<K, V> loadingCache = (LoadingCache<K, V>) cache;
-
-                            for (K key : keys)
-                            {
-                                if (!view.containsKey(key))
-                                {
-                                    loadingCache.get(key);
-                                }
-                                else if (replaceExistingValues)
-                                {
-                                    loadingCache.refresh(key);
-                                }
-                            }
-                        }
-                    }
-                    catch (ExecutionException e)
-                    {
-                        cl.onException(e);
-                    }
-                    finally
-                    {
-                        cl.onCompletion();
-                    }
-                }
+                throw new NullPointerException();
             }
-        );
-    }
 
-    @Override
-    public void put(K key, V value)
-    {
-        checkState();
+            if (replaceExistingValues || expireIfDue(key) || !view.containsKey(key))
+            {
+                missing.add(key);
+            }
+        }
 
-        if (key == null || value == null)
+        if (missing.isEmpty())
         {
-            throw new NullPointerException();
+            cl.onCompletion();
+
+            return;
         }
 
-        cache.put(key, value);
-    }
+        ExecutorService executorService = ((GuavaCacheManager) cacheManager).getLoaderExecutorService();
 
-    @Override
-    public V getAndPut(K key, V value)
-    {
-        checkState();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(MINIMUM_PARTITION_SIZE, (missing.size() + parallelism - 1) / parallelism);
 
-        if (key == null || value == null)
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (final List<K> chunk : Lists.partition(missing, chunkSize))
         {
-            throw new NullPointerException();
+            futures.add(CompletableFuture.runAsync(() -> loadChunk(chunk, replaceExistingValues), executorService));
         }
 
-        return view.put(key, value);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete
+        (
+            (v, t) ->
+            {
+                if (t == null)
+                {
+                    cl.onCompletion();
+                }
+                else
+                {
+                    Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+
+                    cl.onException((cause instanceof Exception) ? (Exception) cause : new CacheLoaderException(cause));
+                }
+            }
+        );
     }
 
     @Override
-    public void putAll(Map<? extends K, ? extends V> map)
+    public void put(K key, V value)
     {
-        checkState();
+        put(key, value, null);
+    }
 
-        if (map == null || map.containsKey(null) || map.containsValue(null))
+    /**
+     * Puts a value that takes {@code cost} nanoseconds to get again, for cost-aware eviction.
+     */
+    public void put(K key, V value, long cost)
+    {
+        if (costs != null && cost < 0)
         {
-            throw new NullPointerException();
+            throw new IllegalArgumentException("Invalid cost: " + cost);
         }
 
-        view.putAll(map);
+        put(key, value, (costs != null) ? Long.valueOf(cost) : null);
     }
 
-    @Override
-    public boolean putIfAbsent(K key, V value)
+    private void put(K key, V value, Long cost)
     {
         checkState();
 
@@ -323,76 +639,116 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
-        return (view.putIfAbsent(key, value) == null);
-    }
+        long start = startTime();
 
-    @Override
-    public boolean remove(K key)
-    {
-        checkState();
+        expireIfDue(key);
 
-        if (key == null)
+        // refused by the admission filter, nothing was put
+        if (!admit(key, false))
         {
-            throw new NullPointerException();
+            return;
         }
 
-        return (view.remove(key) != null);
-    }
+        if (isTrackingWrites())
+        {
+            V oldValue = exchange(key, value);
 
-    @Override
-    public boolean remove(K key, V oldValue)
-    {
-        checkState();
+            // only once stored, and not for a key removed right away, which trim() would otherwise still consider
+            if (cost != null)
+            {
+                costs.setCost(key, cost);
 
-        if (key == null || oldValue == null)
+                if (!view.containsKey(key))
+                {
+                    costs.remove(key);
+                }
+            }
+
+            onWrite(key, value, oldValue);
+        }
+        else
         {
-            throw new NullPointerException();
+            cache.put(key, value);
         }
 
-        return view.remove(key, oldValue);
+        recordPuts(start, 1);
     }
 
     @Override
-    public V getAndRemove(K key)
+    public V getAndPut(K key, V value)
     {
         checkState();
 
-        if (key == null)
+        if (key == null || value == null)
         {
             throw new NullPointerException();
         }
 
-        return view.remove(key);
-    }
+        long start = startTime();
 
-    @Override
-    public boolean replace(K key, V oldValue, V newValue)
-    {
-        checkState();
+        expireIfDue(key);
 
-        if (key == null || oldValue == null || newValue == null)
+        if (!admit(key, false))
         {
-            throw new NullPointerException();
+            recordGet(false);
+
+            return null;
         }
 
-        return view.replace(key, oldValue, newValue);
+        V oldValue = exchange(key, value);
+
+        onWrite(key, value, oldValue);
+
+        recordGet(oldValue != null);
+        recordPuts(start, 1);
+
+        return oldValue;
     }
 
     @Override
-    public boolean replace(K key, V value)
+    public void putAll(Map<? extends K, ? extends V> map)
     {
         checkState();
 
-        if (key == null || value == null)
+        if (map == null || map.containsKey(null) || map.containsValue(null))
         {
             throw new NullPointerException();
         }
 
-        return (view.replace(key, value) != null);
+        long start = startTime();
+        long puts = map.size();
+
+        if (isTrackingWrites() || sketch != null)
+        {
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+            {
+                expireIfDue(entry.getKey());
+
+                if (!admit(entry.getKey(), false))
+                {
+                    puts--;
+
+                    continue;
+                }
+
+                V oldValue = exchange(entry.getKey(), entry.getValue());
+
+                if (isTrackingWrites())
+                {
+                    onWrite(entry.getKey(), entry.getValue(), oldValue);
+                }
+            }
+        }
+        else
+        {
+            view.putAll(map);
+        }
+
+        recordPuts(start, puts);
     }
 
     @Override
-    public V getAndReplace(K key, V value)
+    public boolean putIfAbsent(K key, V value)
     {
         checkState();
 
@@ -401,297 +757,2422 @@ public class GuavaCache<K, V>
             throw new NullPointerException();
         }
 
-        return view.replace(key, value);
+        long start = startTime();
+
+        expireIfDue(key);
+
+        // refused by the admission filter, the key stays absent and nothing was put
+        if (!admit(key, false))
+        {
+            return false;
+        }
+
+        // checked first, a compute() that keeps the current value counts as a write for Guava and would restart its
+        // expire-after-write clock; it still does if a concurrent write gets in between, which has just written anyway
+        if (view.containsKey(key))
+        {
+            return false;
+        }
+
+        OrderedWrite write = new OrderedWrite();
+
+        compute(key, (k, current) -> (current != null) ? current : write.apply(k, value, null));
+
+        if (!write.isWritten())
+        {
+            return false;
+        }
+
+        write.notifySynchronous();
+
+        onWrite(key, value, null);
+
+        recordPuts(start, 1);
+
+        return true;
     }
 
     @Override
-    public void removeAll(Set<? extends K> keys)
+    public boolean remove(K key)
     {
         checkState();
 
-        if (keys == null || keys.contains(null))
+        if (key == null)
         {
             throw new NullPointerException();
         }
 
-        cache.invalidateAll(keys);
+        long start = startTime();
+
+        expireIfDue(key);
+
+        if (exchange(key, null) == null)
+        {
+            return false;
+        }
+
+        recordRemovals(start, 1);
+
+        return true;
     }
 
     @Override
-    public void removeAll()
+    public boolean remove(K key, V oldValue)
     {
         checkState();
 
-        cache.invalidateAll();
+        if (key == null || oldValue == null)
+        {
+            throw new NullPointerException();
+        }
+
+        long start = startTime();
+
+        expireIfDue(key);
+
+        // checked first, like putIfAbsent()
+        V value = view.get(key);
+
+        if (value == null || !value.equals(oldValue))
+        {
+            return false;
+        }
+
+        OrderedWrite write = new OrderedWrite();
+
+        compute(key, (k, current) -> (current != null && current.equals(oldValue)) ? write.apply(k, null, current)
+                                                                                   : current);
+
+        if (!write.isWritten())
+        {
+            return false;
+        }
+
+        write.notifySynchronous();
+
+        recordRemovals(start, 1);
+
+        return true;
     }
 
     @Override
-    public void clear()
+    public V getAndRemove(K key)
     {
         checkState();
 
-        view.clear();
-    }
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
 
-    @Override
-    public <C extends Configuration<K, V>> C getConfiguration(Class<C> clazz)
-    {
-        return (C) configuration;
+        long start = startTime();
+
+        expireIfDue(key);
+
+        V oldValue = exchange(key, null);
+
+        recordGet(oldValue != null);
+
+        if (oldValue != null)
+        {
+            recordRemovals(start, 1);
+        }
+
+        return oldValue;
     }
 
     @Override
-    public <T> T invoke(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments)
-        throws EntryProcessorException
+    public boolean replace(K key, V oldValue, V newValue)
     {
         checkState();
 
-        if (key == null || entryProcessor == null)
+        if (key == null || oldValue == null || newValue == null)
         {
             throw new NullPointerException();
         }
 
-        entryProcessorLock.lock();
+        long start = startTime();
 
-        try
-        {
-            GuavaMutableEntry<K, V> entry = new GuavaMutableEntry<>(key, get(key), containsKey(key));
+        expireIfDue(key);
 
-            T t = entryProcessor.process(entry, arguments);
+        // checked first, like putIfAbsent()
+        V value = view.get(key);
 
-            if (entry.isUpdated())
-            {
-                put(key, entry.getValue());
-            }
+        if (value == null || !value.equals(oldValue))
+        {
+            return false;
+        }
 
-            if (entry.isRemoved())
-            {
-                remove(key);
-            }
+        OrderedWrite write = new OrderedWrite();
 
-            return t;
-        }
-        finally
+        compute(key, (k, current) -> (current != null && current.equals(oldValue)) ? write.apply(k, newValue, current)
+                                                                                   : current);
+
+        if (!write.isWritten())
         {
-            entryProcessorLock.unlock();
+            return false;
         }
+
+        write.notifySynchronous();
+
+        onWrite(key, newValue, write.getOldValue());
+
+        recordPuts(start, 1);
+
+        return true;
     }
 
     @Override
-    public <T> Map<K, EntryProcessorResult<T>>
-        invokeAll(Set<? extends K> keys, EntryProcessor<K, V, T> entryProcessor, Object... arguments)
+    public boolean replace(K key, V value)
     {
-        Map<K, EntryProcessorResult<T>> results = new HashMap<>();
+        checkState();
 
-        for (K key : keys)
+        if (key == null || value == null)
         {
-            results.put(key, new GuavaEntryProcessorResult<>(invoke(key, entryProcessor, arguments)));
+            throw new NullPointerException();
         }
 
-        return results;
-    }
-
-    @Override
-    public String getName()
-    {
-        return cacheName;
+        return (getAndReplace(key, value) != null);
     }
 
     @Override
-    public CacheManager getCacheManager()
+    public V getAndReplace(K key, V value)
     {
-        return cacheManager;
-    }
+        checkState();
 
-    @Override
-    public void close()
-    {
-        if (closed.compareAndSet(false, true))
+        if (key == null || value == null)
         {
-            cache.invalidateAll();
-            cache.cleanUp();
+            throw new NullPointerException();
+        }
 
-            ((GuavaCacheManager) cacheManager).close(this);
+        long start = startTime();
 
-            if (configuration.isManagementEnabled())
-            {
-                String name = GuavaCacheMXBean.getObjectName(this);
+        expireIfDue(key);
 
-                try
-                {
-                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
-                }
-                catch (OperationsException | MBeanException e)
-                {
-                    throw new CacheException(e);
-                }
-            }
+        OrderedWrite write = new OrderedWrite();
 
-            if (configuration.isStatisticsEnabled())
-            {
-                String name = GuavaCacheStatisticsMXBean.getObjectName(this);
+        compute(key, (k, current) -> (current != null) ? write.apply(k, value, current) : null);
 
-                try
-                {
-                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
-                }
-                catch (OperationsException | MBeanException e)
-                {
-                    throw new CacheException(e);
-                }
-            }
+        V oldValue = write.getOldValue();
+
+        recordGet(oldValue != null);
+
+        if (oldValue != null)
+        {
+            write.notifySynchronous();
+
+            onWrite(key, value, oldValue);
+
+            recordPuts(start, 1);
         }
-    }
 
-    @Override
-    public boolean isClosed()
-    {
-        return closed.get();
+        return oldValue;
     }
 
     @Override
-    public <T> T unwrap(Class<T> clazz)
+    public void removeAll(Set<? extends K> keys)
     {
-        if (!clazz.isAssignableFrom(getClass()))
+        checkState();
+
+        if (keys == null || keys.contains(null))
         {
-            throw new IllegalArgumentException();
+            throw new NullPointerException();
         }
 
-        return clazz.cast(this);
-    }
+        if (!statisticsEnabled && variableExpiry == null && offHeapStore == null && !isListening(EventType.REMOVED))
+        {
+            cache.invalidateAll(keys);
 
-    @Override
-    public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration)
-    {
-        throw new UnsupportedOperationException("Not supported yet.");
-    }
+            return;
+        }
 
-    @Override
-    public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration)
-    {
-        throw new UnsupportedOperationException("Not supported yet.");
+        long start = startTime();
+        long removals = 0;
+
+        for (K key : keys)
+        {
+            if (!expireIfDue(key) && exchange(key, null) != null)
+            {
+                removals++;
+            }
+        }
+
+        recordRemovals(start, removals);
     }
 
     @Override
-    public Iterator<Entry<K, V>> iterator()
+    public void removeAll()
     {
         checkState();
 
-        List<javax.cache.Cache.Entry<K, V>> list = new ArrayList<>();
+        long start = statisticsEnabled ? System.nanoTime() : 0L;
+        long removals = (offHeapStore != null) ? removeAllOffHeap() : 0L;
 
-        for (final Map.Entry<K, V> entry : view.entrySet())
+        if (!statisticsEnabled && !isListening(EventType.REMOVED))
         {
-            list.add(new javax.cache.Cache.Entry<K, V>()
-            {
-                @Override
-                public K getKey()
-                {
-                    return entry.getKey();
-                }
+            cache.invalidateAll();
 
-                @Override
-                public V getValue()
-                {
-                    return entry.getValue();
-                }
+            return;
+        }
 
-                @Override
-                public <T> T unwrap(Class<T> clazz)
-                {
-                    return clazz.cast(entry);
-                }
-            });
+        for (K key : view.keySet())
+        {
+            if (exchange(key, null) != null)
+            {
+                removals++;
+            }
         }
 
-        return Collections.unmodifiableList(list).iterator();
+        recordRemovals(start, removals);
     }
 
     @Override
-    public void onRemoval(RemovalNotification<K, V> notification)
+    public void clear()
     {
-        switch (notification.getCause())
-        {
-            case EXPIRED:
-                notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.EXPIRED, notification));
-                break;
+        checkState();
 
-            case EXPLICIT:
-                notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.REMOVED, notification));
-                break;
+        view.clear();
 
-            case REPLACED:
-                notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.UPDATED, notification));
-                break;
+        if (offHeapStore != null)
+        {
+            offHeapStore.clear();
         }
     }
 
-    public void cleanUp()
+    @Override
+    public <C extends Configuration<K, V>> C getConfiguration(Class<C> clazz)
     {
-        cache.cleanUp();
+        return (C) configuration;
     }
 
-    public long size()
+    @Override
+    public <T> T invoke(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments)
+        throws EntryProcessorException
     {
-        return cache.size();
-    }
+        checkState();
 
-    public CacheStats stats()
-    {
-        return cache.stats();
+        if (key == null || entryProcessor == null)
+        {
+            throw new NullPointerException();
+        }
+
+        return invokeEntryProcessor(key, entryProcessor, arguments);
     }
 
-    private void checkState()
+    @Override
+    public <T> Map<K, EntryProcessorResult<T>>
+        invokeAll(Set<? extends K> keys, final EntryProcessor<K, V, T> entryProcessor, final Object... arguments)
     {
-        if (isClosed())
+        checkState();
+
+        if (keys == null || keys.contains(null) || entryProcessor == null)
         {
-            throw new IllegalStateException("This cache is closed!");
+            throw new NullPointerException();
         }
-    }
 
-    private void notifyListeners(CacheEntryEvent<K, V> event)
-    {
-        for (CacheEntryListenerConfiguration<K, V> listenerConfiguration : cacheEntryListenerConfigurations)
+        final List<List<K>> partitions = partition(keys);
+
+        List<CompletableFuture<Map<K, EntryProcessorResult<T>>>> futures = new ArrayList<>(partitions.size());
+
+        for (int i = 1; i < partitions.size(); i++)
         {
-            boolean invokeListener = true;
+            final List<K> partition = partitions.get(i);
 
-            if (listenerConfiguration.getCacheEntryEventFilterFactory() != null)
+            futures.add(CompletableFuture.supplyAsync(() -> invokePartition(partition, entryProcessor, arguments),
+                                                      entryProcessorExecutor));
+        }
+
+        // the calling thread takes care of the first partition itself
+        Map<K, EntryProcessorResult<T>> results = invokePartition(partitions.get(0), entryProcessor, arguments);
+
+        for (CompletableFuture<Map<K, EntryProcessorResult<T>>> future : futures)
+        {
+            try
             {
-                invokeListener = listenerConfiguration.getCacheEntryEventFilterFactory().create().evaluate(event);
+                results.putAll(future.join());
             }
-
-            if (invokeListener)
+            catch (CompletionException e)
             {
-                CacheEntryListener<?, ?> cel = listenerConfiguration.getCacheEntryListenerFactory().create();
-
-                switch (event.getEventType())
+                if (e.getCause() instanceof RuntimeException)
                 {
-                    case CREATED:
-                        if (cel instanceof CacheEntryCreatedListener)
-                        {
-                            throw new CacheEntryListenerException("Not supported!");
-                        }
-                        break;
+                    throw (RuntimeException) e.getCause();
+                }
 
-                    case EXPIRED:
-                        if (cel instanceof CacheEntryExpiredListener)
-                        {
-                            ((CacheEntryExpiredListener) cel).onExpired(Sets.newHashSet(event));
-                        }
-                        break;
+                throw new CacheException(e.getCause());
+            }
+        }
 
-                    case REMOVED:
-                        if (cel instanceof CacheEntryRemovedListener)
-                        {
-                            ((CacheEntryRemovedListener) cel).onRemoved(Sets.newHashSet(event));
-                        }
-                        break;
+        return results;
+    }
+
+    public void invokeBulk(Set<? extends K> keys, GuavaBulkEntryProcessor<K, V> entryProcessor, Object... arguments)
+        throws EntryProcessorException
+    {
+        checkState();
+
+        if (keys == null || keys.contains(null) || entryProcessor == null)
+        {
+            throw new NullPointerException();
+        }
+
+        Collection<? extends K> pending = keys;
+
+        // each pass is applied as it goes: if the processor throws when called again on the entries that were modified
+        // concurrently, the entries written by the previous passes stay written
+        while (!pending.isEmpty())
+        {
+            long start = startTime();
+
+            List<GuavaMutableEntry<K, V>> entries = new ArrayList<>(pending.size());
+            List<V> values = new ArrayList<>(pending.size());
+
+            for (K key : pending)
+            {
+                expireIfDue(key);
+
+                V value = view.get(key);
+
+                entries.add(new GuavaMutableEntry<>(key, value, (value != null), guavaCacheLoader));
+                values.add(value);
+            }
+
+            try
+            {
+                entryProcessor.process(Collections.unmodifiableList(entries), arguments);
+            }
+            catch (EntryProcessorException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                throw new EntryProcessorException(e);
+            }
+
+            List<K> conflicts = new ArrayList<>();
+
+            final boolean[] applied = new boolean[1];
 
-                    case UPDATED:
-                        if (cel instanceof CacheEntryUpdatedListener)
+            for (int i = 0; i < entries.size(); i++)
+            {
+                GuavaMutableEntry<K, V> entry = entries.get(i);
+
+                final V expected = values.get(i);
+
+                // only read, an access like a read-only invoke()
+                if (!isWritten(entry))
+                {
+                    if (expected != null)
+                    {
+                        touch(entry.getKey());
+                    }
+
+                    continue;
+                }
+
+                // checked first, like putIfAbsent(): a compute() that keeps the current value counts as a write for
+                // Guava, which only happens if a concurrent write gets in between
+                if (view.get(entry.getKey()) != expected)
+                {
+                    conflicts.add(entry.getKey());
+
+                    continue;
+                }
+
+                final V value = entry.isRemoved() ? null : entry.getValue();
+
+                final OrderedWrite write = new OrderedWrite();
+
+                applied[0] = false;
+
+                // only write if the entry is still the one the processor has seen
+                compute
+                (
+                    entry.getKey(),
+                    (k, current) ->
+                    {
+                        if (current != expected)
                         {
-                            ((CacheEntryUpdatedListener) cel).onUpdated(Sets.newHashSet(event));
+                            return current;
                         }
-                        break;
+
+                        applied[0] = true;
+
+                        return (current == null && value == null) ? null : write.apply(k, value, current);
+                    }
+                );
+
+                if (!applied[0])
+                {
+                    conflicts.add(entry.getKey());
+
+                    continue;
+                }
+
+                write.notifySynchronous();
+
+                if (value != null)
+                {
+                    onWrite(entry.getKey(), value, expected);
+
+                    recordPuts(start, 1);
+                }
+                else if (expected != null)
+                {
+                    recordRemovals(start, 1);
+                }
+            }
+
+            // the pass is shared by the entries settled in it, each counted as one invoke() like N calls would be
+            if (start != 0L)
+            {
+                long elapsed = (System.nanoTime() - start) / entries.size();
+
+                for (int i = conflicts.size(); i < entries.size(); i++)
+                {
+                    latencies.recordInvoke(elapsed);
+                }
+            }
+
+            pending = conflicts;
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return cacheName;
+    }
+
+    @Override
+    public CacheManager getCacheManager()
+    {
+        return cacheManager;
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed.compareAndSet(false, true))
+        {
+            cache.invalidateAll();
+            cache.cleanUp();
+
+            if (offHeapStore != null)
+            {
+                offHeapStore.clear();
+            }
+
+            ((GuavaCacheManager) cacheManager).close(this);
+
+            synchronized (configuration)
+            {
+                if (configuration.isManagementEnabled())
+                {
+                    unregisterManagementMBeans();
+                }
+
+                if (configuration.isStatisticsEnabled())
+                {
+                    unregisterStatisticsMBeans();
+                }
+
+                unregisterMBean(GuavaCacheLatencies.getObjectName(this));
+            }
+        }
+    }
+
+    protected void setManagementEnabled(boolean enabled)
+    {
+        synchronized (configuration)
+        {
+            if (closed.get() || configuration.isManagementEnabled() == enabled)
+            {
+                return;
+            }
+
+            if (enabled)
+            {
+                registerManagementMBeans();
+            }
+            else
+            {
+                unregisterManagementMBeans();
+            }
+
+            configuration.setManagementEnabled(enabled);
+        }
+    }
+
+    protected void setStatisticsEnabled(boolean enabled)
+    {
+        synchronized (configuration)
+        {
+            if (closed.get() || configuration.isStatisticsEnabled() == enabled)
+            {
+                return;
+            }
+
+            if (enabled)
+            {
+                registerStatisticsMBeans();
+            }
+            else
+            {
+                unregisterStatisticsMBeans();
+            }
+
+            configuration.setStatisticsEnabled(enabled);
+
+            // while off, the only cost left on the hot path is reading this flag
+            statisticsEnabled = enabled;
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed.get();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz)
+    {
+        if (!clazz.isAssignableFrom(getClass()))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        return clazz.cast(this);
+    }
+
+    @Override
+    public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration)
+    {
+        checkState();
+
+        if (cacheEntryListenerConfiguration == null)
+        {
+            throw new NullPointerException();
+        }
+
+        synchronized (listenerRegistrations)
+        {
+            // throws IllegalArgumentException if already registered
+            configuration.addCacheEntryListenerConfiguration(cacheEntryListenerConfiguration);
+
+            listenerRegistrations.add(new ListenerRegistration<>(cacheEntryListenerConfiguration));
+
+            publishListeners();
+        }
+    }
+
+    @Override
+    public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration)
+    {
+        checkState();
+
+        if (cacheEntryListenerConfiguration == null)
+        {
+            throw new NullPointerException();
+        }
+
+        synchronized (listenerRegistrations)
+        {
+            configuration.removeCacheEntryListenerConfiguration(cacheEntryListenerConfiguration);
+
+            Iterator<ListenerRegistration<K, V>> i = listenerRegistrations.iterator();
+
+            while (i.hasNext())
+            {
+                if (i.next().getConfiguration().equals(cacheEntryListenerConfiguration))
+                {
+                    i.remove();
+                }
+            }
+
+            publishListeners();
+        }
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator()
+    {
+        checkState();
+
+        return new EntryIterator(false);
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator()
+    {
+        checkState();
+
+        return spliterator(false);
+    }
+
+    /**
+     * A scan of the entries, which unlike iterating them records neither hits nor accesses.
+     */
+    public Stream<Entry<K, V>> stream()
+    {
+        checkState();
+
+        return StreamSupport.stream(spliterator(true), false);
+    }
+
+    /**
+     * A parallel scan of the entries, which unlike iterating them records neither hits nor accesses.
+     */
+    public Stream<Entry<K, V>> parallelStream()
+    {
+        checkState();
+
+        return StreamSupport.stream(spliterator(true), true);
+    }
+
+    // the iterator is split in batches, the size is only an estimate since the cache may change concurrently
+    private Spliterator<Entry<K, V>> spliterator(boolean scan)
+    {
+        return Spliterators.spliterator(new EntryIterator(scan), view.size(),
+                                        Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    public <R> R mapReduce(BiFunction<? super K, ? super V, ? extends R> mapper, R identity, BinaryOperator<R> reducer)
+    {
+        return parallelStream().<R>map(e -> mapper.apply(e.getKey(), e.getValue())).reduce(identity, reducer);
+    }
+
+    public <G> Map<G, Long> countBy(BiFunction<? super K, ? super V, ? extends G> classifier)
+    {
+        return parallelStream().collect(Collectors.groupingByConcurrent(e -> classifier.apply(e.getKey(), e.getValue()),
+                                                                        Collectors.counting()));
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<K, V> notification)
+    {
+        if (sketch != null && notification.getCause() == RemovalCause.SIZE)
+        {
+            victim = notification.getKey();
+        }
+
+        if (costs != null && notification.getCause() != RemovalCause.REPLACED)
+        {
+            costs.remove(notification.getKey());
+        }
+
+        if (notification.getCause() != RemovalCause.REPLACED)
+        {
+            warm(notification.getKey());
+        }
+
+        // a replaced value was released when its successor was weighed
+        if (weigher != null && notification.getValue() != null && notification.getCause() != RemovalCause.REPLACED)
+        {
+            weigher.release(notification.getKey(), notification.getValue());
+        }
+
+        if (variableExpiry != null && onVariableRemoval(notification))
+        {
+            return;
+        }
+
+        // shed by trim(), which has demoted the entry or counted its eviction
+        if (notification.getCause() == RemovalCause.EXPLICIT
+            && !shedding.isEmpty()
+            && shedding.remove(notification.getKey(), notification.getValue()))
+        {
+            if (sketch != null)
+            {
+                victim = notification.getKey();
+            }
+
+            return;
+        }
+
+        if (statisticsEnabled && notification.wasEvicted())
+        {
+            statistics.recordEviction();
+        }
+
+        switch (notification.getCause())
+        {
+            case EXPIRED:
+                if (isListening(EventType.EXPIRED))
+                {
+                    notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.EXPIRED, notification));
                 }
+                break;
+
+            case EXPLICIT:
+            case REPLACED:
+                // REMOVED and UPDATED events are emitted by the write operations themselves, under the lock of the key
+                break;
+        }
+    }
+
+    public Executor getEntryProcessorExecutor()
+    {
+        return entryProcessorExecutor;
+    }
+
+    public void setEntryProcessorExecutor(Executor entryProcessorExecutor)
+    {
+        if (entryProcessorExecutor == null)
+        {
+            throw new NullPointerException();
+        }
+
+        this.entryProcessorExecutor = entryProcessorExecutor;
+    }
+
+    public void cleanUp()
+    {
+        cache.cleanUp();
+
+        if (variableExpiry != null)
+        {
+            expireEntries(ticker.read());
+        }
+
+        enforceLimit();
+    }
+
+    public long size()
+    {
+        return cache.size();
+    }
+
+    public CacheStats stats()
+    {
+        return statistics.snapshot().toCacheStats();
+    }
+
+    /**
+     * The sum of the weights of the entries, or their number if the cache is not bounded by weight.
+     */
+    public long getTotalWeight()
+    {
+        return (weigher != null) ? weigher.getTotalWeight() : cache.size();
+    }
+
+    /**
+     * The total weight this cache is currently allowed to hold, {@code Long.MAX_VALUE} unless the eviction is
+     * cost-aware, the heap is under pressure or the manager has a budget.
+     */
+    public long getCapacity()
+    {
+        return limit;
+    }
+
+    protected void setCapacity(long capacity)
+    {
+        this.capacity = Math.max(0, capacity);
+
+        updateLimit();
+    }
+
+    /**
+     * The hits counted for the budget of the manager since this cache was created, statistics enabled or not.
+     */
+    protected long getBudgetHits()
+    {
+        return (hits != null) ? hits.sum() : 0;
+    }
+
+    protected void setAllotment(long allotment)
+    {
+        this.allotment = Math.max(0, allotment);
+
+        updateLimit();
+    }
+
+    /**
+     * Exempts the entry of a key, present or not, from eviction by size until it is unpinned.
+     *
+     * @return false if the pinned quota of the cache is used up
+     */
+    public boolean pin(K key)
+    {
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
+
+        if (pinned == null)
+        {
+            return false;
+        }
+
+        synchronized (pinned)
+        {
+            if (!pinned.contains(key) && pinned.size() >= pinnedQuota)
+            {
+                return false;
+            }
+
+            pinned.add(key);
+        }
+
+        if (weigher != null)
+        {
+            weigher.setPinned(key, true);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return false if the key was not pinned
+     */
+    public boolean unpin(K key)
+    {
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
+
+        if (pinned == null || !pinned.remove(key))
+        {
+            return false;
+        }
+
+        if (weigher != null)
+        {
+            weigher.setPinned(key, false);
+        }
+
+        enforceLimit();
+
+        return true;
+    }
+
+    public boolean isPinned(K key)
+    {
+        return (pinned != null && pinned.contains(key));
+    }
+
+    /**
+     * The number of pinned keys, present or not.
+     */
+    public long getPinnedCount()
+    {
+        return (pinned != null) ? pinned.size() : 0;
+    }
+
+    /**
+     * The eviction order of this cache, null unless the eviction is cost-aware.
+     */
+    public GuavaCacheCosts<K> getCosts()
+    {
+        return costs;
+    }
+
+    /**
+     * The off-heap tier of this cache, null unless configured with an off-heap capacity.
+     */
+    public GuavaOffHeapStore<K> getOffHeapStore()
+    {
+        return offHeapStore;
+    }
+
+    public Ticker getTicker()
+    {
+        return ticker;
+    }
+
+    public GuavaCacheStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    public boolean isStatisticsEnabled()
+    {
+        return statisticsEnabled;
+    }
+
+    public GuavaCacheLatencies getLatencies()
+    {
+        return latencies;
+    }
+
+    public GuavaCacheRollingStatistics getRollingStatistics()
+    {
+        return rollingStatistics;
+    }
+
+    private void checkState()
+    {
+        if (isClosed())
+        {
+            throw new IllegalStateException("This cache is closed!");
+        }
+    }
+
+    private V getValue(K key)
+    {
+        if (cacheLoader != null)
+        {
+            // counted by get() already, a value that is not admitted is loaded without being cached
+            if (sketch != null && !admit(key, true))
+            {
+                return loadValue(key);
+            }
+
+            try
+            {
+                return ((LoadingCache<K, V>) cache).get(key);
+            }
+            catch (ExecutionException e)
+            {
+                throw new CacheException(e);
+            }
+        }
+
+        return cache.getIfPresent(key);
+    }
+
+    // loads a value that is not admitted without caching it, failing the way LoadingCache.get() does
+    private V loadValue(K key)
+    {
+        V value;
+
+        try
+        {
+            value = guavaCacheLoader.load(key);
+        }
+        catch (RuntimeException e)
+        {
+            throw new UncheckedExecutionException(e);
+        }
+        catch (Exception e)
+        {
+            throw new CacheException(new ExecutionException(e));
+        }
+
+        if (value == null)
+        {
+            throw new com.google.common.cache.CacheLoader.InvalidCacheLoadException
+            (
+                "CacheLoader returned null for key " + key + "."
+            );
+        }
+
+        return value;
+    }
+
+    // TinyLFU: once the cache is full, a new key gets in only if it is used more often than the entry it would evict
+    private boolean admit(K key, boolean counted)
+    {
+        if (sketch == null)
+        {
+            return true;
+        }
+
+        // one access per operation, a read-through load was counted by the get() that triggered it
+        if (!counted)
+        {
+            sketch.increment(key);
+        }
+
+        if (isAdmitted(key))
+        {
+            return true;
+        }
+
+        if (statisticsEnabled)
+        {
+            statistics.recordEviction();
+        }
+
+        return false;
+    }
+
+    private boolean isAdmitted(K key)
+    {
+        Object candidate = victim;
+
+        return (candidate == null
+                    || cache.size() < admissionThreshold
+                    || sketch.frequency(key) > sketch.frequency(candidate)
+                    || view.containsKey(key));
+    }
+
+    private Map<K, V> getAllValues(Set<? extends K> keys)
+    {
+        if (cacheLoader != null)
+        {
+            try
+            {
+                return ((LoadingCache<K, V>) cache).getAll(keys);
+            }
+            catch (ExecutionException e)
+            {
+                throw new CacheException(e);
+            }
+        }
+
+        return cache.getAllPresent(keys);
+    }
+
+    private void registerManagementMBeans()
+    {
+        GuavaCacheMXBean bean = new GuavaCacheMXBean(this);
+
+        registerMBean(bean, bean.getObjectName());
+    }
+
+    private void unregisterManagementMBeans()
+    {
+        unregisterMBean(GuavaCacheMXBean.getObjectName(this));
+    }
+
+    private void registerStatisticsMBeans()
+    {
+        GuavaCacheStatisticsMXBean bean = new GuavaCacheStatisticsMXBean(this);
+
+        registerMBean(bean, bean.getObjectName());
+        registerMBean(rollingStatistics, rollingStatistics.getObjectName());
+    }
+
+    private void unregisterStatisticsMBeans()
+    {
+        unregisterMBean(GuavaCacheStatisticsMXBean.getObjectName(this));
+        unregisterMBean(GuavaCacheRollingStatistics.getObjectName(this));
+    }
+
+    private static void registerMBean(Object bean, String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        }
+        catch (OperationsException | MBeanException e)
+        {
+            throw new CacheException(e);
+        }
+    }
+
+    private static void unregisterMBean(String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+        }
+        catch (OperationsException | MBeanException e)
+        {
+            throw new CacheException(e);
+        }
+    }
+
+    private synchronized void updateLimit()
+    {
+        limit = Math.min(costAwareCapacity, Math.min(capacity, allotment));
+
+        enforceLimit();
+    }
+
+    // Guava does not expose its eviction order, so the entries are shed by cost when the eviction is cost-aware, and
+    // least recently read first otherwise, or once no cost is known: a CLOCK, whose hand marks the entries it passes and
+    // sheds those that were not read by the time it comes back to them
+    private void trim()
+    {
+        while (costs != null && isOverLimit())
+        {
+            K key = costs.poll();
+
+            if (key == null)
+            {
+                break;
+            }
+
+            V value = view.get(key);
+
+            if (value != null && (pinned == null || !pinned.contains(key)))
+            {
+                shed(key, value);
+            }
+        }
+
+        // a thread already moving the hand keeps at it until the cache is back within its limit
+        if (!isOverLimit() || !trimming.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            // two laps mark and shed every entry, a third one is only started from where a previous trim stopped
+            int laps = 0;
+
+            while (isOverLimit())
+            {
+                if (hand == null || !hand.hasNext())
+                {
+                    if (++laps > 3)
+                    {
+                        break;
+                    }
+
+                    hand = view.entrySet().iterator();
+
+                    continue;
+                }
+
+                Map.Entry<K, V> entry = hand.next();
+
+                K key = entry.getKey();
+
+                if ((pinned != null && pinned.contains(key)) || cold.add(key))
+                {
+                    continue;
+                }
+
+                cold.remove(key);
+
+                shed(key, entry.getValue());
+            }
+        }
+        finally
+        {
+            trimming.set(false);
+        }
+    }
+
+    private void shed(K key, final V value)
+    {
+        final boolean[] shed = new boolean[1];
+        final boolean[] demoted = new boolean[1];
+
+        shedding.put(key, value);
+
+        // demoted under the lock of the key, so that no write of the key can come between its removal from the heap and
+        // its copy off-heap; a value written since is kept, compute() then counts as a write of a value just written
+        view.computeIfPresent
+        (
+            key,
+            (k, current) ->
+            {
+                if (current != value)
+                {
+                    return current;
+                }
+
+                shed[0] = true;
+                demoted[0] = (offHeapStore != null && demote(k, value, offHeapDeadline(k, value)));
+
+                return null;
+            }
+        );
+
+        if (!shed[0])
+        {
+            shedding.remove(key, value);
+        }
+        else if (!demoted[0] && statisticsEnabled)
+        {
+            statistics.recordEviction();
+        }
+    }
+
+    private long startTime()
+    {
+        // 0 means untimed, so that the disabled path costs no clock read
+        return (statisticsEnabled || latencies.isEnabled()) ? System.nanoTime() : 0L;
+    }
+
+    private void recordGet(boolean hit)
+    {
+        if (hit)
+        {
+            countHits(1);
+        }
+
+        if (statisticsEnabled)
+        {
+            if (hit)
+            {
+                statistics.recordHits(1);
+            }
+            else
+            {
+                statistics.recordMisses(1);
+            }
+        }
+    }
+
+    private void countHits(long count)
+    {
+        if (hits != null && count > 0)
+        {
+            hits.add(count);
+        }
+    }
+
+    private void recordPuts(long start, long puts)
+    {
+        enforceLimit();
+
+        if (start != 0L && puts > 0)
+        {
+            long elapsed = System.nanoTime() - start;
+
+            if (statisticsEnabled)
+            {
+                statistics.recordPuts(puts, elapsed);
+            }
+
+            latencies.recordPut(elapsed);
+        }
+    }
+
+    // every write and load path ends here, a cheap place to keep a bounded cache within its capacity
+    private void enforceLimit()
+    {
+        if (isOverLimit())
+        {
+            trim();
+        }
+    }
+
+    private boolean isOverLimit()
+    {
+        if (limit == Long.MAX_VALUE && unpinnedCapacity == Long.MAX_VALUE)
+        {
+            return false;
+        }
+
+        long weight = getTotalWeight();
+        long pinnedWeight = (weigher != null) ? weigher.getPinnedWeight() : 0L;
+
+        return (weight > limit || (weight - pinnedWeight) > unpinnedCapacity);
+    }
+
+    private void recordRemovals(long start, long removals)
+    {
+        if (statisticsEnabled && removals > 0)
+        {
+            statistics.recordRemovals(removals, System.nanoTime() - start);
+        }
+    }
+
+    private void loadChunk(List<K> keys, boolean replaceExistingValues)
+    {
+        Map<K, V> values = loadValues(keys);
+
+        if (values == null)
+        {
+            return;
+        }
+
+        for (Map.Entry<K, V> entry : values.entrySet())
+        {
+            if (entry.getKey() == null || entry.getValue() == null || !admit(entry.getKey(), false))
+            {
+                continue;
+            }
+
+            if (replaceExistingValues)
+            {
+                onWrite(entry.getKey(), entry.getValue(), exchange(entry.getKey(), entry.getValue()));
+            }
+            // an existing value is left alone without being written again, like putIfAbsent()
+            else if (!view.containsKey(entry.getKey()))
+            {
+                OrderedWrite write = new OrderedWrite();
+
+                compute
+                (
+                    entry.getKey(),
+                    (k, current) -> (current != null) ? current : write.apply(k, entry.getValue(), null)
+                );
+
+                if (write.isWritten())
+                {
+                    write.notifySynchronous();
+
+                    onWrite(entry.getKey(), entry.getValue(), null);
+                }
+            }
+        }
+
+        enforceLimit();
+    }
+
+    // through the loader of the cache, so that the loads are recorded like those of read-through
+    private Map<K, V> loadValues(List<K> keys)
+    {
+        try
+        {
+            try
+            {
+                return guavaCacheLoader.loadAll(keys);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // same fallback as LoadingCache.getAll(), one key at a time
+                Map<K, V> values = new HashMap<>();
+
+                for (K key : keys)
+                {
+                    values.put(key, guavaCacheLoader.load(key));
+                }
+
+                return values;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new CacheLoaderException(e);
+        }
+    }
+
+    private <T> T invokeEntryProcessor(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments)
+        throws EntryProcessorException
+    {
+        long start = startTime();
+
+        expireIfDue(key);
+
+        try
+        {
+            EntryProcessorFunction<T> function = new EntryProcessorFunction<>(entryProcessor, arguments);
+
+            // a single run and a single write back, under the Guava segment lock of this key; a read-through load made
+            // by the processor holds that lock too, blocking the other keys of the segment while it runs
+            V value = compute(key, function);
+
+            function.notifySynchronous();
+
+            if (function.isWritten() && value != null)
+            {
+                onWrite(key, value, function.getOldValue());
+
+                recordPuts(start, 1);
+            }
+            else if (!function.isWritten() && value != null)
+            {
+                touch(key);
+            }
+            else if (function.isWritten() && function.getOldValue() != null)
+            {
+                recordRemovals(start, 1);
+            }
+
+            return function.getResult();
+        }
+        finally
+        {
+            if (start != 0L)
+            {
+                latencies.recordInvoke(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static <K, V, T> T process(EntryProcessor<K, V, T> entryProcessor, GuavaMutableEntry<K, V> entry,
+                                       Object... arguments)
+        throws EntryProcessorException
+    {
+        try
+        {
+            return entryProcessor.process(entry, arguments);
+        }
+        catch (EntryProcessorException e)
+        {
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            throw new EntryProcessorException(e);
+        }
+    }
+
+    private static boolean isWritten(GuavaMutableEntry<?, ?> entry)
+    {
+        return (entry.isRemoved() || entry.isUpdated() || entry.isLoaded());
+    }
+
+    private <T> Map<K, EntryProcessorResult<T>>
+        invokePartition(List<K> keys, EntryProcessor<K, V, T> entryProcessor, Object... arguments)
+    {
+        Map<K, EntryProcessorResult<T>> results = new HashMap<>();
+
+        for (K key : keys)
+        {
+            try
+            {
+                results.put(key, new GuavaEntryProcessorResult<>(invokeEntryProcessor(key, entryProcessor, arguments)));
+            }
+            catch (EntryProcessorException e)
+            {
+                results.put(key, new GuavaEntryProcessorResult<T>(e));
+            }
+        }
+
+        return results;
+    }
+
+    private List<List<K>> partition(Set<? extends K> keys)
+    {
+        int parallelism =
+            (entryProcessorExecutor instanceof ForkJoinPool)
+                ? ((ForkJoinPool) entryProcessorExecutor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+
+        // a power of two, so that each partition covers a disjoint range of Guava segments
+        int count = Integer.highestOneBit(Math.max(1, Math.min(parallelism, keys.size() / MINIMUM_PARTITION_SIZE)));
+
+        List<List<K>> partitions = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            partitions.add(new ArrayList<K>((keys.size() / count) + 1));
+        }
+
+        int shift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+
+        for (K key : keys)
+        {
+            // Guava picks the segment from the upper bits of the rehashed key, so do the same here
+            int index = (count == 1) ? 0 : (rehash(key.hashCode()) >>> shift);
+
+            partitions.get(index).add(key);
+        }
+
+        return partitions;
+    }
+
+    private static int rehash(int h)
+    {
+        // same as com.google.common.cache.LocalCache.rehash(int)
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+
+        return h ^ (h >>> 16);
+    }
+
+    private void publishListeners()
+    {
+        ListenerRegistration<K, V>[][] tables = new ListenerRegistration[EventType.values().length][];
+
+        for (EventType eventType : EventType.values())
+        {
+            List<ListenerRegistration<K, V>> registrations = new ArrayList<>();
+
+            for (ListenerRegistration<K, V> registration : listenerRegistrations)
+            {
+                if (registration.isListening(eventType))
+                {
+                    registrations.add(registration);
+                }
+            }
+
+            tables[eventType.ordinal()] = registrations.toArray(new ListenerRegistration[registrations.size()]);
+        }
+
+        listeners = tables;
+    }
+
+    private boolean isListening(EventType eventType)
+    {
+        return (listeners[eventType.ordinal()].length != 0);
+    }
+
+    private boolean hasWriteListeners()
+    {
+        ListenerRegistration<K, V>[][] tables = listeners;
+
+        return (tables[EventType.CREATED.ordinal()].length != 0 || tables[EventType.UPDATED.ordinal()].length != 0);
+    }
+
+    private boolean isTrackingWrites()
+    {
+        return (variableExpiry != null || costs != null || offHeapStore != null || hasWriteListeners());
+    }
+
+    private void onWrite(K key, V value, V oldValue)
+    {
+        if (costs != null)
+        {
+            costs.recordWrite(key);
+        }
+
+        scheduleExpiry(key, value, oldValue);
+    }
+
+    private void scheduleExpiry(K key, V value, V oldValue)
+    {
+        if (variableExpiry == null)
+        {
+            return;
+        }
+
+        long now = ticker.read();
+
+        Duration duration = (oldValue == null) ? variableExpiry.getExpiryForCreation()
+                                               : variableExpiry.getExpiryForUpdate();
+
+        GuavaTimingWheel.Timer<K, V> previous = timers.get(key);
+
+        long deadline;
+
+        if (duration != null)
+        {
+            deadline = deadline(now, duration);
+        }
+        else if (previous != null)
+        {
+            // unchanged
+            deadline = previous.getDeadline();
+        }
+        else
+        {
+            deadline = GuavaTimingWheel.ETERNAL;
+        }
+
+        final long d = deadline;
+        final boolean expiredOnCreation = (oldValue == null && duration != null && duration.isZero());
+
+        // installed under the lock of the key and only for the current value, the writes of the key are not ordered
+        // with their calls to this method (returning the same value from compute is no write)
+        view.computeIfPresent
+        (
+            key,
+            (k, current) ->
+            {
+                if (current != value)
+                {
+                    return current;
+                }
+
+                // only a value loaded by Guava gets here, the writes of the cache do not add it
+                if (expiredOnCreation)
+                {
+                    return null;
+                }
+
+                schedule(k, value, d);
+
+                return current;
+            }
+        );
+
+        // writes drive the wheel, a clock read and a couple of shifts while no bucket is due
+        expireEntries(now);
+    }
+
+    private boolean isExpiredOnCreation()
+    {
+        if (variableExpiry == null)
+        {
+            return false;
+        }
+
+        Duration duration = variableExpiry.getExpiryForCreation();
+
+        return (duration != null && duration.isZero());
+    }
+
+    private void schedule(K key, V value, long deadline)
+    {
+        GuavaTimingWheel.Timer<K, V> timer = new GuavaTimingWheel.Timer<>(key, value, deadline);
+        GuavaTimingWheel.Timer<K, V> previous = timers.put(key, timer);
+
+        if (previous != null)
+        {
+            timingWheel.cancel(previous);
+        }
+
+        timingWheel.schedule(timer);
+    }
+
+    // a read takes the entry out of the clock of trim(), a lookup in an empty set while nothing is trimmed
+    private void warm(K key)
+    {
+        if (!cold.isEmpty())
+        {
+            cold.remove(key);
+        }
+    }
+
+    private void touch(K key)
+    {
+        warm(key);
+
+        if (costs != null)
+        {
+            costs.recordHit(key);
+        }
+
+        if (variableExpiry == null)
+        {
+            return;
+        }
+
+        Duration duration = variableExpiry.getExpiryForAccess();
+
+        GuavaTimingWheel.Timer<K, V> timer = timers.get(key);
+
+        if (duration == null || timer == null)
+        {
+            return;
+        }
+
+        long deadline = deadline(ticker.read(), duration);
+        long previous = timer.getDeadline();
+
+        timer.setDeadline(deadline);
+
+        // an extended deadline is picked up lazily when the wheel reaches the timer, a shorter one is rescheduled
+        if (deadline - previous < 0 || previous == GuavaTimingWheel.ETERNAL)
+        {
+            timingWheel.schedule(timer);
+        }
+    }
+
+    private boolean expireIfDue(K key)
+    {
+        // off-heap entries are brought back on the heap first, so that every keyed operation only deals with Guava
+        if (offHeapStore != null)
+        {
+            fault(key);
+        }
+
+        if (variableExpiry == null)
+        {
+            return false;
+        }
+
+        GuavaTimingWheel.Timer<K, V> timer = timers.get(key);
+
+        return (timer != null && timer.isExpired(ticker.read()) && expire(timer));
+    }
+
+    private void expireEntries(long now)
+    {
+        // nothing to collect within a bucket of the wheel, and a thread already advancing it is not waited for
+        if (!timingWheel.isTicking(now))
+        {
+            return;
+        }
+
+        List<GuavaTimingWheel.Timer<K, V>> expired = new ArrayList<>();
+
+        if (!timingWheel.tryAdvance(now, expired))
+        {
+            return;
+        }
+
+        for (GuavaTimingWheel.Timer<K, V> timer : expired)
+        {
+            expire(timer);
+        }
+    }
+
+    private boolean expire(final GuavaTimingWheel.Timer<K, V> timer)
+    {
+        final boolean[] expired = new boolean[1];
+
+        // the EXPIRED event is emitted by onRemoval, which finds the timer still mapped and past its deadline
+        view.computeIfPresent
+        (
+            timer.getKey(),
+            (k, current) ->
+            {
+                // the timer may have been left by an older value of a concurrent write
+                if (current != timer.getValue() || timers.get(k) != timer || !timer.isExpired(ticker.read()))
+                {
+                    return current;
+                }
+
+                expired[0] = true;
+
+                if (offHeapStore != null)
+                {
+                    dropOffHeap(k);
+                }
+
+                return null;
+            }
+        );
+
+        return expired[0];
+    }
+
+    private boolean onVariableRemoval(RemovalNotification<K, V> notification)
+    {
+        if (notification.getCause() == RemovalCause.REPLACED)
+        {
+            return false;
+        }
+
+        GuavaTimingWheel.Timer<K, V> timer = timers.get(notification.getKey());
+
+        if (timer == null || timer.getValue() != notification.getValue() || !timers.remove(timer.getKey(), timer))
+        {
+            return false;
+        }
+
+        timingWheel.cancel(timer);
+
+        if (notification.getCause() != RemovalCause.EXPLICIT || !timer.isExpired(ticker.read()))
+        {
+            return false;
+        }
+
+        if (statisticsEnabled)
+        {
+            statistics.recordEviction();
+        }
+
+        if (isListening(EventType.EXPIRED))
+        {
+            notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.EXPIRED, notification));
+        }
+
+        return true;
+    }
+
+    private void fault(K key)
+    {
+        GuavaOffHeapStore.Record<K> record = offHeapStore.get(key);
+
+        if (record == null)
+        {
+            return;
+        }
+
+        if (!record.isExpired(ticker.read()))
+        {
+            final V value = readOffHeap(record);
+
+            // putIfAbsent() leaves a value written since the demotion alone, and does not count as a write of it
+            if (value != null && view.putIfAbsent(key, value) == null && variableExpiry != null)
+            {
+                final long deadline = record.getDeadline();
+
+                view.computeIfPresent
+                (
+                    key,
+                    (k, current) ->
+                    {
+                        if (current == value)
+                        {
+                            schedule(k, value, deadline);
+                        }
+
+                        return current;
+                    }
+                );
+            }
+
+            // only dropped once the value is visible on the heap, so that no reader misses the entry
+            offHeapStore.remove(key, record);
+
+            return;
+        }
+
+        V value = (isListening(EventType.EXPIRED) && !view.containsKey(key)) ? readOffHeap(record) : null;
+
+        if (offHeapStore.remove(key, record) && !view.containsKey(key))
+        {
+            if (statisticsEnabled)
+            {
+                statistics.recordEviction();
+            }
+
+            if (value != null)
+            {
+                notifyListeners(new GuavaCacheEntryEvent<>(this, EventType.EXPIRED, key, value, null));
+            }
+        }
+    }
+
+    // compute() for a keyed operation, which sees a value demoted since the operation brought the key back on the heap
+    // as the current one: the demotion and this function both run under the lock of the key
+    private V compute(K key, BiFunction<? super K, ? super V, ? extends V> function)
+    {
+        if (offHeapStore == null)
+        {
+            return view.compute(key, function);
+        }
+
+        return view.compute
+        (
+            key,
+            (k, current) ->
+            {
+                if (current != null)
+                {
+                    return function.apply(k, current);
+                }
+
+                GuavaOffHeapStore.Record<K> record = offHeapStore.get(k);
+
+                V demoted = (record != null && !record.isExpired(ticker.read())) ? readOffHeap(record) : null;
+                V value = function.apply(k, demoted);
+
+                // kept as is, the value is back on the heap like fault() would have put it; a write dropped the record
+                if (demoted != null && value == demoted)
+                {
+                    offHeapStore.remove(k, record);
+
+                    if (variableExpiry != null)
+                    {
+                        schedule(k, value, record.getDeadline());
+                    }
+                }
+
+                return value;
+            }
+        );
+    }
+
+    // called under the lock of the key: any record left is older than the value written
+    private void dropOffHeap(K key)
+    {
+        GuavaOffHeapStore.Record<K> record = offHeapStore.get(key);
+
+        if (record != null)
+        {
+            offHeapStore.remove(key, record);
+        }
+    }
+
+    private long offHeapDeadline(K key, V value)
+    {
+        if (variableExpiry != null)
+        {
+            GuavaTimingWheel.Timer<K, V> timer = timers.get(key);
+
+            return (timer != null && timer.getValue() == value) ? timer.getDeadline() : GuavaTimingWheel.ETERNAL;
+        }
+
+        return (offHeapLifetime > 0) ? ticker.read() + offHeapLifetime : GuavaTimingWheel.ETERNAL;
+    }
+
+    private boolean demote(K key, V value, long deadline)
+    {
+        byte[] bytes = GuavaOffHeapStore.serialize(value);
+
+        if (bytes == null)
+        {
+            return false;
+        }
+
+        int evictions = offHeapStore.put(key, bytes, deadline);
+
+        if (evictions < 0)
+        {
+            return false;
+        }
+
+        if (statisticsEnabled && evictions > 0)
+        {
+            statistics.recordEvictions(evictions);
+        }
+
+        return true;
+    }
+
+    private V readOffHeap(GuavaOffHeapStore.Record<K> record)
+    {
+        byte[] bytes = offHeapStore.read(record);
+
+        if (bytes == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return (V) GuavaOffHeapStore.deserialize(bytes, cacheManager.getClassLoader());
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            throw new CacheException(e);
+        }
+    }
+
+    private long removeAllOffHeap()
+    {
+        long removals = 0;
+
+        if (!statisticsEnabled && !isListening(EventType.REMOVED))
+        {
+            offHeapStore.clear();
+
+            return removals;
+        }
+
+        long now = ticker.read();
+
+        for (K key : offHeapStore.keySet())
+        {
+            if (isListening(EventType.REMOVED))
+            {
+                // the event needs the value, the entry is brought back on the heap and removed from there
+                fault(key);
+
+                if (exchange(key, null) != null)
+                {
+                    removals++;
+                }
+            }
+            else
+            {
+                GuavaOffHeapStore.Record<K> record = offHeapStore.get(key);
+
+                if (record != null && offHeapStore.remove(key, record) && !record.isExpired(now))
+                {
+                    removals++;
+                }
+            }
+        }
+
+        return removals;
+    }
+
+    private static long deadline(long now, Duration duration)
+    {
+        if (duration.isEternal())
+        {
+            return GuavaTimingWheel.ETERNAL;
+        }
+
+        long nanos = duration.getTimeUnit().toNanos(duration.getDurationAmount());
+
+        // saturated, so that a very long duration does not wrap around
+        return (nanos >= GuavaTimingWheel.ETERNAL - now) ? (GuavaTimingWheel.ETERNAL - 1) : (now + nanos);
+    }
+
+    // puts, or removes when value is null, and returns the previous value; compute() is only paid for when the event
+    // is listened to, when the off-heap record of the key must go with the write, or when a value created now would not
+    // be added
+    private V exchange(K key, final V value)
+    {
+        if (offHeapStore == null
+            && ((value == null) ? !isListening(EventType.REMOVED) : (!hasWriteListeners() && !isExpiredOnCreation())))
+        {
+            return (value == null) ? view.remove(key) : view.put(key, value);
+        }
+
+        final OrderedWrite write = new OrderedWrite();
+
+        compute(key, (k, current) -> (value == null && current == null) ? null : write.apply(k, value, current));
+
+        write.notifySynchronous();
+
+        return write.getOldValue();
+    }
+
+    // called under the lock of the key, returns the event for the synchronous listeners (null if none)
+    private CacheEntryEvent<K, V> enqueueWrite(K key, V value, V oldValue)
+    {
+        EventType eventType = (value == null) ? EventType.REMOVED
+                                              : (oldValue == null) ? EventType.CREATED : EventType.UPDATED;
+
+        if (!isListening(eventType))
+        {
+            return null;
+        }
+
+        // a removal carries the removed value, like the notifications of Guava
+        CacheEntryEvent<K, V> event = (value == null)
+                                      ? new GuavaCacheEntryEvent<>(this, eventType, key, oldValue, null)
+                                      : new GuavaCacheEntryEvent<>(this, eventType, key, value, oldValue);
+
+        dispatchAsynchronous(event);
+
+        return event;
+    }
+
+    private void notifyListeners(CacheEntryEvent<K, V> event)
+    {
+        dispatchAsynchronous(event);
+        notifySynchronous(event);
+    }
+
+    private void dispatchAsynchronous(final CacheEntryEvent<K, V> event)
+    {
+        for (final ListenerRegistration<K, V> registration : listeners[event.getEventType().ordinal()])
+        {
+            if (!registration.isSynchronous())
+            {
+                ((GuavaCacheManager) cacheManager).getEventDispatcher()
+                                                  .dispatch(event.getKey(), () -> registration.notify(event));
+            }
+        }
+    }
+
+    // never under the lock of the key, a synchronous listener may call back into the cache
+    private void notifySynchronous(CacheEntryEvent<K, V> event)
+    {
+        for (ListenerRegistration<K, V> registration : listeners[event.getEventType().ordinal()])
+        {
+            if (registration.isSynchronous())
+            {
+                registration.notify(event);
+            }
+        }
+    }
+
+    // a write made inside compute(), whose event is enqueued before the lock of the key is released, so that the
+    // asynchronous listeners see the events of a key in the order of its writes
+    private final class OrderedWrite
+    {
+        private boolean written;
+        private V oldValue;
+        private CacheEntryEvent<K, V> event;
+
+        // returns value, null for a removal
+        public V apply(K key, V value, V current)
+        {
+            // an entry that would expire as soon as created is not added at all
+            if (value != null && current == null && isExpiredOnCreation())
+            {
+                return null;
+            }
+
+            written = true;
+            oldValue = current;
+            event = enqueueWrite(key, value, current);
+
+            if (offHeapStore != null)
+            {
+                dropOffHeap(key);
+            }
+
+            return value;
+        }
+
+        public boolean isWritten()
+        {
+            return written;
+        }
+
+        public V getOldValue()
+        {
+            return oldValue;
+        }
+
+        public void notifySynchronous()
+        {
+            if (event != null)
+            {
+                GuavaCache.this.notifySynchronous(event);
+            }
+        }
+    }
+
+    // runs the processor on the current value and writes back what it did to the entry, the current value unchanged if
+    // it only read it
+    private final class EntryProcessorFunction<T>
+        implements BiFunction<K, V, V>
+    {
+        private final EntryProcessor<K, V, T> entryProcessor;
+        private final Object[] arguments;
+
+        private T result;
+        private RuntimeException exception;
+
+        private V oldValue;
+        private boolean written;
+
+        private final OrderedWrite write = new OrderedWrite();
+
+        public EntryProcessorFunction(EntryProcessor<K, V, T> entryProcessor, Object[] arguments)
+        {
+            this.entryProcessor = entryProcessor;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public V apply(K key, V current)
+        {
+            try
+            {
+                GuavaMutableEntry<K, V> entry = new GuavaMutableEntry<>(key, current, (current != null),
+                                                                        guavaCacheLoader);
+
+                result = entryProcessor.process(entry, arguments);
+
+                oldValue = current;
+                written = GuavaCache.isWritten(entry);
+
+                if (entry.isRemoved())
+                {
+                    return (current != null) ? write.apply(key, null, current) : null;
+                }
+
+                if (entry.isUpdated() || entry.isLoaded())
+                {
+                    return write.apply(key, entry.getValue(), current);
+                }
+
+                // read only: no write notified, weighed or scheduled, and no longer a write for Guava's expiry
+                return current;
+            }
+            catch (RuntimeException e)
+            {
+                // never let an exception escape from compute(), Guava would keep a failed loading reference
+                exception = e;
+
+                return current;
+            }
+        }
+
+        public V getOldValue()
+        {
+            return oldValue;
+        }
+
+        public boolean isWritten()
+        {
+            return written;
+        }
+
+        public void notifySynchronous()
+        {
+            write.notifySynchronous();
+        }
+
+        public T getResult()
+            throws EntryProcessorException
+        {
+            if (exception instanceof EntryProcessorException)
+            {
+                throw (EntryProcessorException) exception;
+            }
+            else if (exception != null)
+            {
+                throw new EntryProcessorException(exception);
+            }
+
+            return result;
+        }
+    }
+
+    private final class EntryIterator
+        implements Iterator<Entry<K, V>>
+    {
+        // weakly consistent and lazy, expired entries are skipped by Guava or by the lookahead
+        private final Iterator<Map.Entry<K, V>> iterator = view.entrySet().iterator();
+
+        // then the off-heap entries, read in place rather than brought back on the heap
+        private final Iterator<K> offHeapIterator = (offHeapStore != null) ? offHeapStore.keySet().iterator()
+                                                                           : Collections.<K>emptyIterator();
+
+        // a scan by a stream, which is not a use of the entries
+        private final boolean scan;
+
+        private Map.Entry<K, V> next;
+        private Map.Entry<K, V> last;
+
+        public EntryIterator(boolean scan)
+        {
+            this.scan = scan;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (next == null && iterator.hasNext())
+            {
+                Map.Entry<K, V> entry = iterator.next();
+
+                if (!expireIfDue(entry.getKey()))
+                {
+                    next = entry;
+                }
+            }
+
+            while (next == null && offHeapIterator.hasNext())
+            {
+                K key = offHeapIterator.next();
+
+                GuavaOffHeapStore.Record<K> record = offHeapStore.get(key);
+
+                // an entry back on the heap since was already visited, or is newer than the iteration
+                if (record == null || record.isExpired(ticker.read()) || view.containsKey(key))
+                {
+                    continue;
+                }
+
+                V value = readOffHeap(record);
+
+                if (value != null)
+                {
+                    next = Maps.immutableEntry(key, value);
+                }
+            }
+
+            return (next != null);
+        }
+
+        @Override
+        public Entry<K, V> next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<K, V> entry = next;
+
+            next = null;
+            last = entry;
+
+            if (scan)
+            {
+                return new GuavaCacheEntry<>(entry);
+            }
+
+            // iterating counts as a hit and as an access, which Guava's own iterator does not record
+            if (statisticsEnabled)
+            {
+                statistics.recordHits(1);
+            }
+
+            if (expireAfterAccess)
+            {
+                cache.getIfPresent(entry.getKey());
+            }
+
+            touch(entry.getKey());
+
+            return new GuavaCacheEntry<>(entry);
+        }
+
+        @Override
+        public void remove()
+        {
+            checkState();
+
+            if (last == null)
+            {
+                throw new IllegalStateException();
+            }
+
+            // only the value returned by next(), a value written since is left alone
+            GuavaCache.this.remove(last.getKey(), last.getValue());
+
+            last = null;
+        }
+    }
+
+    private static final class GuavaCacheEntry<K, V>
+        implements javax.cache.Cache.Entry<K, V>
+    {
+        private final Map.Entry<K, V> entry;
+
+        public GuavaCacheEntry(Map.Entry<K, V> entry)
+        {
+            this.entry = entry;
+        }
+
+        @Override
+        public K getKey()
+        {
+            return entry.getKey();
+        }
+
+        @Override
+        public V getValue()
+        {
+            return entry.getValue();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> clazz)
+        {
+            return clazz.cast(entry);
+        }
+    }
+
+    private static final class ListenerRegistration<K, V>
+    {
+        private final CacheEntryListenerConfiguration<K, V> configuration;
+        private final CacheEntryListener<? super K, ? super V> listener;
+        private final CacheEntryEventFilter<? super K, ? super V> filter;
+        private final boolean synchronous;
+
+        public ListenerRegistration(CacheEntryListenerConfiguration<K, V> configuration)
+        {
+            this.configuration = configuration;
+            this.listener = configuration.getCacheEntryListenerFactory().create();
+            this.filter =
+                (configuration.getCacheEntryEventFilterFactory() != null)
+                    ? configuration.getCacheEntryEventFilterFactory().create()
+                    : null;
+            this.synchronous = configuration.isSynchronous();
+        }
+
+        public CacheEntryListenerConfiguration<K, V> getConfiguration()
+        {
+            return configuration;
+        }
+
+        public boolean isSynchronous()
+        {
+            return synchronous;
+        }
+
+        public boolean isListening(EventType eventType)
+        {
+            switch (eventType)
+            {
+                case CREATED:
+                    return (listener instanceof CacheEntryCreatedListener);
+
+                case EXPIRED:
+                    return (listener instanceof CacheEntryExpiredListener);
+
+                case REMOVED:
+                    return (listener instanceof CacheEntryRemovedListener);
+
+                case UPDATED:
+                    return (listener instanceof CacheEntryUpdatedListener);
+            }
+
+            return false;
+        }
+
+        public void notify(CacheEntryEvent<K, V> event)
+        {
+            if (filter != null && !filter.evaluate(event))
+            {
+                return;
+            }
+
+            List<CacheEntryEvent<K, V>> events = Collections.singletonList(event);
+
+            switch (event.getEventType())
+            {
+                case CREATED:
+                    ((CacheEntryCreatedListener) listener).onCreated(events);
+                    break;
+
+                case EXPIRED:
+                    ((CacheEntryExpiredListener) listener).onExpired(events);
+                    break;
+
+                case REMOVED:
+                    ((CacheEntryRemovedListener) listener).onRemoved(events);
+                    break;
+
+                case UPDATED:
+                    ((CacheEntryUpdatedListener) listener).onUpdated(events);
+                    break;
             }
         }
     }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.cache.Cache;
+
+/**
+ * A total weight shared by all the caches of a manager, in entries unless they are bounded by weight.
+ * <p>
+ * The budget is periodically split into allotments. While the caches are far from the budget, each one may grow into
+ * a share of the free space. Close to it, the budget is reallocated in proportion to both the weight of the caches and
+ * their hits since the previous rebalance, so that eviction pressure moves toward the caches that are hit the least.
+ * The caches count these hits themselves, whether their statistics are enabled or not.
+ */
+public class GuavaCacheBudget
+    implements Runnable
+{
+    // how much of the allotments follows the hits rather than the current weights
+    private static final double VALUE_RATIO = 0.5;
+
+    // above this fraction of the budget, the allotments are redistributed instead of grown
+    private static final double FULL_RATIO = 0.9;
+
+    private final GuavaCacheManager cacheManager;
+    private final long maximumTotalWeight;
+
+    // guarded by this: hits of the caches as of the previous rebalance
+    private final Map<GuavaCache<?, ?>, Long> baselines = new HashMap<>();
+
+    public GuavaCacheBudget(GuavaCacheManager cacheManager, long maximumTotalWeight)
+    {
+        this.cacheManager = cacheManager;
+        this.maximumTotalWeight = maximumTotalWeight;
+    }
+
+    public long getMaximumTotalWeight()
+    {
+        return maximumTotalWeight;
+    }
+
+    public long getTotalWeight()
+    {
+        long totalWeight = 0;
+
+        for (Cache<?, ?> cache : cacheManager.getCaches())
+        {
+            totalWeight += cache.unwrap(GuavaCache.class).getTotalWeight();
+        }
+
+        return totalWeight;
+    }
+
+    @Override
+    public void run()
+    {
+        if (cacheManager.isClosed())
+        {
+            return;
+        }
+
+        try
+        {
+            rebalance();
+        }
+        catch (RuntimeException e)
+        {
+            // a failing cache must not stop the rebalancing of the others
+        }
+    }
+
+    public synchronized void rebalance()
+    {
+        List<GuavaCache<?, ?>> caches = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        List<Long> hits = new ArrayList<>();
+
+        long totalWeight = 0;
+        long totalHits = 0;
+
+        for (Cache<?, ?> c : cacheManager.getCaches())
+        {
+            GuavaCache<?, ?> cache = c.unwrap(GuavaCache.class);
+
+            long weight = cache.getTotalWeight();
+            long hit = getHits(cache);
+
+            caches.add(cache);
+            weights.add(weight);
+            hits.add(hit);
+
+            totalWeight += weight;
+            totalHits += hit;
+        }
+
+        baselines.keySet().retainAll(caches);
+
+        int n = caches.size();
+
+        for (int i = 0; i < n; i++)
+        {
+            // without any hit, the value share is split evenly
+            double valueShare = (totalHits > 0) ? (double) hits.get(i) / totalHits : 1.0 / n;
+
+            long allotment;
+
+            if (totalWeight < maximumTotalWeight * FULL_RATIO)
+            {
+                double share = VALUE_RATIO * valueShare + (1.0 - VALUE_RATIO) / n;
+
+                allotment = weights.get(i) + (long) ((maximumTotalWeight - totalWeight) * share);
+            }
+            else
+            {
+                double weightShare = (double) weights.get(i) / totalWeight;
+                double share = VALUE_RATIO * valueShare + (1.0 - VALUE_RATIO) * weightShare;
+
+                allotment = (long) (maximumTotalWeight * share);
+            }
+
+            caches.get(i).setAllotment(allotment);
+        }
+    }
+
+    // guarded by this: hits since the previous rebalance
+    private long getHits(GuavaCache<?, ?> cache)
+    {
+        long hits = cache.getBudgetHits();
+        Long baseline = baselines.put(cache, hits);
+
+        return hits - ((baseline != null) ? baseline : 0);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import javax.cache.expiry.Duration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+
+/**
+ * The default storage engine, a Guava cache built from the properties of the cache manager.
+ */
+public class GuavaCacheBuilderEngine
+    implements GuavaStorageEngine
+{
+    @Override
+    public <K, V> Cache<K, V> create(GuavaStorageSettings<K, V> settings)
+    {
+        CacheBuilder cacheBuilder = CacheBuilder.from(CacheBuilderSpec.parse(settings.getSpecification()))
+                                                .ticker(settings.getTicker())
+                                                .removalListener(settings.getRemovalListener());
+
+        if (settings.getWeigher() != null)
+        {
+            cacheBuilder = cacheBuilder.weigher(settings.getWeigher());
+        }
+
+        Duration expireAfterWrite = settings.getExpireAfterWrite();
+        Duration expireAfterAccess = settings.getExpireAfterAccess();
+
+        if (expireAfterWrite != null)
+        {
+            cacheBuilder.expireAfterWrite(expireAfterWrite.getDurationAmount(), expireAfterWrite.getTimeUnit());
+        }
+
+        if (expireAfterAccess != null)
+        {
+            cacheBuilder.expireAfterAccess(expireAfterAccess.getDurationAmount(), expireAfterAccess.getTimeUnit());
+        }
+
+        return (settings.getLoader() != null) ? cacheBuilder.build(settings.getLoader()) : cacheBuilder.build();
+    }
+
+    @Override
+    public boolean isExpiring()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The eviction order of a cost-aware {@link GuavaCache}, after GreedyDual: every access gives an entry the priority
+ * {@code L + cost}, the entry of lowest priority is evicted first and {@code L} is raised to its priority. Cheap
+ * entries go first, while expensive ones that are no longer used age out as {@code L} catches up with them.
+ * <p>
+ * The cost of a key, in nanoseconds, is the time its last load took, or the one given to
+ * {@link GuavaCache#put(Object, Object, long)}; a key put without a cost costs nothing. Hits and loads are also
+ * counted per decade of cost.
+ */
+public class GuavaCacheCosts<K>
+{
+    private static final long[] BUCKET_BOUNDS =
+    {
+        TimeUnit.MILLISECONDS.toNanos(1L),
+        TimeUnit.MILLISECONDS.toNanos(10L),
+        TimeUnit.MILLISECONDS.toNanos(100L),
+        TimeUnit.SECONDS.toNanos(1L)
+    };
+
+    private static final String[] BUCKET_NAMES = { "<1ms", "<10ms", "<100ms", "<1s", ">=1s" };
+
+    private final ConcurrentMap<K, Priority<K>> priorities = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Priority<K>> queue = new ConcurrentSkipListSet<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // L, the priority of the last evicted entry
+    private volatile double inflation;
+
+    private final LongAdder[] hits = newCounters();
+    private final LongAdder[] loads = newCounters();
+
+    public void recordLoad(K key, long nanos)
+    {
+        loads[bucketOf(nanos)].increment();
+
+        update(key, Math.max(0L, nanos));
+    }
+
+    public void recordLoads(Collection<? extends K> keys, long nanos)
+    {
+        if (keys.isEmpty())
+        {
+            return;
+        }
+
+        // a bulk load is shared evenly
+        long cost = nanos / keys.size();
+
+        for (K key : keys)
+        {
+            if (key != null)
+            {
+                recordLoad(key, cost);
+            }
+        }
+    }
+
+    public void recordHit(K key)
+    {
+        Priority<K> priority = update(key, -1L);
+
+        hits[bucketOf(priority.cost)].increment();
+    }
+
+    public void recordWrite(K key)
+    {
+        update(key, -1L);
+    }
+
+    public void setCost(K key, long nanos)
+    {
+        if (nanos < 0)
+        {
+            throw new IllegalArgumentException("Invalid cost: " + nanos);
+        }
+
+        update(key, nanos);
+    }
+
+    public void remove(K key)
+    {
+        Priority<K> priority = priorities.remove(key);
+
+        if (priority != null)
+        {
+            queue.remove(priority);
+        }
+    }
+
+    public void clear()
+    {
+        priorities.clear();
+        queue.clear();
+    }
+
+    /**
+     * The key to evict next, null if none.
+     */
+    public K poll()
+    {
+        Priority<K> priority;
+
+        while ((priority = queue.pollFirst()) != null)
+        {
+            // otherwise superseded by a concurrent access
+            if (priorities.remove(priority.key, priority))
+            {
+                inflation = Math.max(inflation, priority.value);
+
+                return priority.key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Hits over hits and loads, per decade of cost.
+     */
+    public Map<String, Float> getHitPercentages()
+    {
+        Map<String, Float> percentages = new LinkedHashMap<>();
+
+        for (int i = 0; i < BUCKET_NAMES.length; i++)
+        {
+            long h = hits[i].sum();
+            long gets = h + loads[i].sum();
+
+            percentages.put(BUCKET_NAMES[i], (gets == 0) ? 1F : (float) h / gets);
+        }
+
+        return Collections.unmodifiableMap(percentages);
+    }
+
+    public void clearStatistics()
+    {
+        for (int i = 0; i < BUCKET_NAMES.length; i++)
+        {
+            hits[i].reset();
+            loads[i].reset();
+        }
+    }
+
+    // a negative cost keeps the one known for the key, if any
+    private Priority<K> update(K key, long cost)
+    {
+        return priorities.compute
+        (
+            key,
+            (k, previous) ->
+            {
+                long c = (cost >= 0) ? cost : ((previous != null) ? previous.cost : 0L);
+
+                if (previous != null)
+                {
+                    queue.remove(previous);
+                }
+
+                Priority<K> priority = new Priority<>(k, c, inflation + c, sequence.incrementAndGet());
+
+                queue.add(priority);
+
+                return priority;
+            }
+        );
+    }
+
+    private static int bucketOf(long nanos)
+    {
+        int i = 0;
+
+        while (i < BUCKET_BOUNDS.length && nanos >= BUCKET_BOUNDS[i])
+        {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static LongAdder[] newCounters()
+    {
+        LongAdder[] counters = new LongAdder[BUCKET_NAMES.length];
+
+        for (int i = 0; i < counters.length; i++)
+        {
+            counters[i] = new LongAdder();
+        }
+
+        return counters;
+    }
+
+    private static final class Priority<K>
+        implements Comparable<Priority<K>>
+    {
+        private final K key;
+        private final long cost;
+        private final double value;
+        // ties are evicted least recently used first
+        private final long sequence;
+
+        private Priority(K key, long cost, double value, long sequence)
+        {
+            this.key = key;
+            this.cost = cost;
+            this.value = value;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Priority<K> other)
+        {
+            int c = Double.compare(value, other.value);
+
+            return (c != 0) ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+}
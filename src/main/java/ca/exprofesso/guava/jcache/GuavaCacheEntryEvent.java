@@ -23,37 +23,46 @@ import com.google.common.cache.RemovalNotification;
 public class GuavaCacheEntryEvent<K, V>
     extends javax.cache.event.CacheEntryEvent<K, V>
 {
-    private final RemovalNotification<K, V> notification;
+    private final K key;
+    private final V value;
+    private final V oldValue;
 
     public GuavaCacheEntryEvent(Cache<K, V> source, EventType eventType, RemovalNotification<K, V> notification)
+    {
+        this(source, eventType, notification.getKey(), notification.getValue(), null);
+    }
+
+    public GuavaCacheEntryEvent(Cache<K, V> source, EventType eventType, K key, V value, V oldValue)
     {
         super(source, eventType);
 
-        this.notification = notification;
+        this.key = key;
+        this.value = value;
+        this.oldValue = oldValue;
     }
 
     @Override
     public V getOldValue()
     {
-        return null;
+        return oldValue;
     }
 
     @Override
     public boolean isOldValueAvailable()
     {
-        return false;
+        return (oldValue != null);
     }
 
     @Override
     public K getKey()
     {
-        return notification.getKey();
+        return key;
     }
 
     @Override
     public V getValue()
     {
-        return notification.getValue();
+        return value;
     }
 
     @Override
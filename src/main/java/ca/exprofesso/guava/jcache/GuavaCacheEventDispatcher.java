@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.cache.CacheManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+public class GuavaCacheEventDispatcher
+    implements GuavaCacheEventDispatcherMXBean
+{
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    private final CacheManager cacheManager;
+
+    // one single threaded lane per key hash, so that events for the same key are delivered in order
+    private final ThreadPoolExecutor[] lanes;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder totalLag = new LongAdder();
+    private final LongAccumulator maximumLag = new LongAccumulator(Math::max, 0L);
+
+    public GuavaCacheEventDispatcher(CacheManager cacheManager, int lanes)
+    {
+        this.cacheManager = cacheManager;
+        this.lanes = new ThreadPoolExecutor[lanes];
+
+        ThreadFactory threadFactory =
+            new ThreadFactoryBuilder().setNameFormat("guava-jcache-events-%d").setDaemon(true).build();
+
+        RejectedExecutionHandler rejectedExecutionHandler = (r, e) -> dropped.increment();
+
+        for (int i = 0; i < lanes; i++)
+        {
+            ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                                       threadFactory, rejectedExecutionHandler);
+
+            executor.allowCoreThreadTimeOut(true);
+
+            this.lanes[i] = executor;
+        }
+    }
+
+    public void dispatch(Object key, final Runnable delivery)
+    {
+        final long enqueued = System.nanoTime();
+
+        int h = key.hashCode();
+
+        ThreadPoolExecutor lane = lanes[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.length];
+
+        lane.execute
+        (
+            () ->
+            {
+                long lag = System.nanoTime() - enqueued;
+
+                totalLag.add(lag);
+                maximumLag.accumulate(lag);
+                dispatched.increment();
+
+                try
+                {
+                    delivery.run();
+                }
+                catch (RuntimeException e)
+                {
+                    // no-op, a failing listener must not stop the lane
+                }
+            }
+        );
+    }
+
+    public void shutdown()
+    {
+        for (ThreadPoolExecutor lane : lanes)
+        {
+            lane.shutdown();
+        }
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        int depth = 0;
+
+        for (ThreadPoolExecutor lane : lanes)
+        {
+            depth += lane.getQueue().size();
+        }
+
+        return depth;
+    }
+
+    @Override
+    public int getQueueCapacity()
+    {
+        return QUEUE_CAPACITY * lanes.length;
+    }
+
+    @Override
+    public long getDispatchedEvents()
+    {
+        return dispatched.sum();
+    }
+
+    @Override
+    public long getDroppedEvents()
+    {
+        return dropped.sum();
+    }
+
+    @Override
+    public float getAverageDeliveryLag()
+    {
+        long count = dispatched.sum();
+
+        return (count == 0) ? 0 : (float) (totalLag.sum() / count) / 1000;
+    }
+
+    @Override
+    public float getMaximumDeliveryLag()
+    {
+        return (float) maximumLag.get() / 1000;
+    }
+
+    protected String getObjectName()
+    {
+        return getObjectName(cacheManager);
+    }
+
+    protected static String getObjectName(CacheManager cm)
+    {
+        StringBuilder builder = new StringBuilder("javax.cache:type=CacheEventDispatcher");
+
+        builder.append(",CacheManager=").append(cm.getURI().toString().replaceAll(":", "//"));
+
+        return builder.toString();
+    }
+}
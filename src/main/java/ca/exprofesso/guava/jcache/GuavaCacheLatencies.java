@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import javax.cache.Cache;
+
+public class GuavaCacheLatencies
+    implements GuavaCacheLatenciesMXBean
+{
+    private final Cache<?, ?> cache;
+
+    private final GuavaLatencyHistogram getHits = new GuavaLatencyHistogram();
+    private final GuavaLatencyHistogram getMisses = new GuavaLatencyHistogram();
+    private final GuavaLatencyHistogram loads = new GuavaLatencyHistogram();
+    private final GuavaLatencyHistogram puts = new GuavaLatencyHistogram();
+    private final GuavaLatencyHistogram invokes = new GuavaLatencyHistogram();
+
+    private volatile boolean enabled;
+
+    public GuavaCacheLatencies(Cache<?, ?> cache, boolean enabled)
+    {
+        this.cache = cache;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void clear()
+    {
+        getHits.clear();
+        getMisses.clear();
+        loads.clear();
+        puts.clear();
+        invokes.clear();
+    }
+
+    @Override
+    public GuavaLatencyHistogram.Snapshot getGetHitLatency()
+    {
+        return getHits.snapshot();
+    }
+
+    @Override
+    public GuavaLatencyHistogram.Snapshot getGetMissLatency()
+    {
+        return getMisses.snapshot();
+    }
+
+    @Override
+    public GuavaLatencyHistogram.Snapshot getLoadLatency()
+    {
+        return loads.snapshot();
+    }
+
+    @Override
+    public GuavaLatencyHistogram.Snapshot getPutLatency()
+    {
+        return puts.snapshot();
+    }
+
+    @Override
+    public GuavaLatencyHistogram.Snapshot getInvokeLatency()
+    {
+        return invokes.snapshot();
+    }
+
+    public void recordGet(boolean hit, long nanos)
+    {
+        if (enabled)
+        {
+            (hit ? getHits : getMisses).record(nanos);
+        }
+    }
+
+    public void recordLoad(long nanos)
+    {
+        if (enabled)
+        {
+            loads.record(nanos);
+        }
+    }
+
+    public void recordPut(long nanos)
+    {
+        if (enabled)
+        {
+            puts.record(nanos);
+        }
+    }
+
+    public void recordInvoke(long nanos)
+    {
+        if (enabled)
+        {
+            invokes.record(nanos);
+        }
+    }
+
+    protected String getObjectName()
+    {
+        return getObjectName(cache);
+    }
+
+    protected static String getObjectName(Cache<?, ?> c)
+    {
+        StringBuilder builder = new StringBuilder("javax.cache:type=CacheLatencies");
+
+        builder.append(",CacheManager=").append(c.getCacheManager().getURI().toString().replaceAll(":", "//"));
+        builder.append(",Cache=").append(c.getName());
+
+        return builder.toString();
+    }
+}
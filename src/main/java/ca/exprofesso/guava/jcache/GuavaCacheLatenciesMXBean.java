@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+public interface GuavaCacheLatenciesMXBean
+{
+    public abstract boolean isEnabled();
+
+    public abstract void setEnabled(boolean enabled);
+
+    public abstract void clear();
+
+    public abstract GuavaLatencyHistogram.Snapshot getGetHitLatency();
+
+    public abstract GuavaLatencyHistogram.Snapshot getGetMissLatency();
+
+    public abstract GuavaLatencyHistogram.Snapshot getLoadLatency();
+
+    public abstract GuavaLatencyHistogram.Snapshot getPutLatency();
+
+    public abstract GuavaLatencyHistogram.Snapshot getInvokeLatency();
+}
@@ -23,23 +23,132 @@ public class GuavaCacheLoader<K, V>
     extends com.google.common.cache.CacheLoader<K, V>
 {
     private final CacheLoader<K, V> delegate;
+    // loads are recorded as the statistics, latencies and cost-aware eviction of this cache say, if any
+    private final GuavaCache<K, V> cache;
 
     public GuavaCacheLoader(CacheLoader<K, V> delegate)
+    {
+        this(delegate, null);
+    }
+
+    public GuavaCacheLoader(CacheLoader<K, V> delegate, GuavaCache<K, V> cache)
     {
         this.delegate = delegate;
+        this.cache = cache;
     }
 
     @Override
     public V load(K key)
         throws Exception
     {
-        return delegate.load(key);
+        if (cache == null)
+        {
+            return delegate.load(key);
+        }
+
+        // read once per load, the statistics and latencies can be switched at runtime
+        GuavaCacheStatistics statistics = cache.isStatisticsEnabled() ? cache.getStatistics() : null;
+        GuavaCacheLatencies latencies = cache.getLatencies().isEnabled() ? cache.getLatencies() : null;
+        GuavaCacheCosts<K> costs = cache.getCosts();
+
+        if (statistics == null && latencies == null && costs == null)
+        {
+            return delegate.load(key);
+        }
+
+        long start = System.nanoTime();
+
+        try
+        {
+            V value = delegate.load(key);
+
+            long elapsed = System.nanoTime() - start;
+
+            if (statistics != null)
+            {
+                statistics.recordLoadSuccess(elapsed);
+            }
+
+            if (latencies != null)
+            {
+                latencies.recordLoad(elapsed);
+            }
+
+            if (costs != null && value != null)
+            {
+                costs.recordLoad(key, elapsed);
+            }
+
+            return value;
+        }
+        catch (RuntimeException e)
+        {
+            if (statistics != null)
+            {
+                statistics.recordLoadException(System.nanoTime() - start);
+            }
+
+            throw e;
+        }
     }
 
     @Override
     public Map<K, V> loadAll(Iterable<? extends K> keys)
         throws Exception
     {
-        return delegate.loadAll(keys);
+        if (cache == null)
+        {
+            return delegate.loadAll(keys);
+        }
+
+        GuavaCacheStatistics statistics = cache.isStatisticsEnabled() ? cache.getStatistics() : null;
+        GuavaCacheLatencies latencies = cache.getLatencies().isEnabled() ? cache.getLatencies() : null;
+        GuavaCacheCosts<K> costs = cache.getCosts();
+
+        if (statistics == null && latencies == null && costs == null)
+        {
+            return delegate.loadAll(keys);
+        }
+
+        long start = System.nanoTime();
+
+        try
+        {
+            Map<K, V> values = delegate.loadAll(keys);
+
+            long elapsed = System.nanoTime() - start;
+
+            // a bulk load counts as one load, as in Guava
+            if (statistics != null)
+            {
+                statistics.recordLoadSuccess(elapsed);
+            }
+
+            if (latencies != null)
+            {
+                latencies.recordLoad(elapsed);
+            }
+
+            if (costs != null && values != null)
+            {
+                costs.recordLoads(values.keySet(), elapsed);
+            }
+
+            return values;
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // not a failed load, the keys are loaded one at a time instead
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            if (statistics != null)
+            {
+                statistics.recordLoadException(System.nanoTime() - start);
+            }
+
+            throw e;
+        }
     }
 }
@@ -19,7 +19,7 @@ import javax.cache.Cache;
 import javax.cache.configuration.CompleteConfiguration;
 
 public class GuavaCacheMXBean
-    implements javax.cache.management.CacheMXBean
+    implements GuavaCacheManagementMXBean
 {
     private final Cache<?, ?> cache;
 
@@ -70,6 +70,46 @@ public class GuavaCacheMXBean
         return cache.getConfiguration(CompleteConfiguration.class).isManagementEnabled();
     }
 
+    @Override
+    public long getSize()
+    {
+        return cache.unwrap(GuavaCache.class).size();
+    }
+
+    @Override
+    public long getTotalWeight()
+    {
+        return cache.unwrap(GuavaCache.class).getTotalWeight();
+    }
+
+    @Override
+    public long getCapacity()
+    {
+        return cache.unwrap(GuavaCache.class).getCapacity();
+    }
+
+    @Override
+    public long getOffHeapSize()
+    {
+        GuavaOffHeapStore<?> offHeapStore = cache.unwrap(GuavaCache.class).getOffHeapStore();
+
+        return (offHeapStore != null) ? offHeapStore.size() : 0L;
+    }
+
+    @Override
+    public long getOffHeapBytes()
+    {
+        GuavaOffHeapStore<?> offHeapStore = cache.unwrap(GuavaCache.class).getOffHeapStore();
+
+        return (offHeapStore != null) ? offHeapStore.getUsedBytes() : 0L;
+    }
+
+    @Override
+    public long getPinnedCount()
+    {
+        return cache.unwrap(GuavaCache.class).getPinnedCount();
+    }
+
     protected String getObjectName()
     {
         return getObjectName(cache);
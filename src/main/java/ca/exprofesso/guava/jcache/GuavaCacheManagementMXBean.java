@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import javax.cache.management.CacheMXBean;
+
+public interface GuavaCacheManagementMXBean
+    extends CacheMXBean
+{
+    public abstract long getSize();
+
+    public abstract long getTotalWeight();
+
+    public abstract long getCapacity();
+
+    public abstract long getOffHeapSize();
+
+    public abstract long getOffHeapBytes();
+
+    public abstract long getPinnedCount();
+}
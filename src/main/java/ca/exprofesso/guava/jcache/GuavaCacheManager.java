@@ -15,27 +15,73 @@
  */
 package ca.exprofesso.guava.jcache;
 
+import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.cache.Cache;
 import javax.cache.CacheException;
 import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Configuration;
-import javax.cache.expiry.EternalExpiryPolicy;
-import javax.cache.expiry.ExpiryPolicy;
-import javax.cache.expiry.ModifiedExpiryPolicy;
-import javax.cache.expiry.TouchedExpiryPolicy;
 import javax.cache.spi.CachingProvider;
+import javax.management.MBeanException;
+import javax.management.ObjectName;
+import javax.management.OperationsException;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class GuavaCacheManager
     implements javax.cache.CacheManager
 {
+    // manager properties (intervals in milliseconds); all the others are passed on to CacheBuilderSpec
+    public static final String MAINTENANCE_INTERVAL = "maintenanceInterval";
+    public static final String MAINTENANCE_MAXIMUM_INTERVAL = "maintenanceMaximumInterval";
+    public static final String TICKER = "ticker";
+
+    // fractions of the maximum size of the tenured heap, the memory governor is disabled without a high watermark
+    public static final String MEMORY_HIGH_WATERMARK = "memoryHighWatermark";
+    public static final String MEMORY_LOW_WATERMARK = "memoryLowWatermark";
+
+    // shared by all the caches, in entries (or in the unit of the weigher with maximumWeight), unbounded by default
+    public static final String MAXIMUM_TOTAL_WEIGHT = "maximumTotalWeight";
+
+    // storage engine of all the caches, or of a single one when suffixed with "." and its name
+    public static final String STORAGE_ENGINE = "storageEngine";
+
+    // values of the ticker property, besides the name of a Ticker class
+    public static final String SYSTEM_TICKER = "system";
+    public static final String COARSE_TICKER = "coarse";
+    public static final String MANUAL_TICKER = "manual";
+
+    // values of the storage engine properties, besides the name of a GuavaStorageEngine class
+    public static final String GUAVA_STORAGE_ENGINE = "guava";
+    public static final String CONCURRENT_MAP_STORAGE_ENGINE = "concurrentMap";
+
+    private static final Set<String> MANAGER_PROPERTIES =
+        ImmutableSet.of(MAINTENANCE_INTERVAL, MAINTENANCE_MAXIMUM_INTERVAL, TICKER, MEMORY_HIGH_WATERMARK,
+                        MEMORY_LOW_WATERMARK, MAXIMUM_TOTAL_WEIGHT, STORAGE_ENGINE);
+
+    private static final long DEFAULT_MAINTENANCE_INTERVAL = 1000L;
+    private static final long DEFAULT_MAINTENANCE_MAXIMUM_INTERVAL = 60000L;
+
     private final URI uri;
     private final ClassLoader classLoader;
     private final Properties properties;
@@ -47,12 +93,69 @@ public class GuavaCacheManager
 
     private final Object lock = new Object();
 
+    private final ExecutorService loaderExecutorService;
+
+    private volatile GuavaCacheEventDispatcher eventDispatcher;
+
+    private final long maintenanceInterval;
+    private final long maintenanceMaximumInterval;
+
+    private ScheduledExecutorService maintenanceExecutorService;
+
+    private final Ticker ticker;
+
+    // null unless enabled
+    private final GuavaMemoryGovernor memoryGovernor;
+    private final GuavaCacheBudget budget;
+
+    // guarded by lock
+    private boolean budgetScheduled;
+
     public GuavaCacheManager(URI uri, ClassLoader classLoader, Properties properties, CachingProvider cachingProvider)
     {
         this.uri = uri;
         this.classLoader = classLoader;
         this.properties = properties;
         this.cachingProvider = cachingProvider;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                   new ThreadFactoryBuilder().setNameFormat("guava-jcache-loader-%d")
+                                                             .setDaemon(true)
+                                                             .build());
+
+        // idle managers do not keep any thread around
+        executor.allowCoreThreadTimeOut(true);
+
+        this.loaderExecutorService = executor;
+
+        this.maintenanceInterval = getLongProperty(MAINTENANCE_INTERVAL, DEFAULT_MAINTENANCE_INTERVAL);
+        this.maintenanceMaximumInterval =
+            Math.max(maintenanceInterval, getLongProperty(MAINTENANCE_MAXIMUM_INTERVAL,
+                                                          DEFAULT_MAINTENANCE_MAXIMUM_INTERVAL));
+
+        this.ticker = createTicker(properties.getProperty(TICKER, SYSTEM_TICKER).trim());
+
+        double highWatermark = getDoubleProperty(MEMORY_HIGH_WATERMARK, 0);
+        double lowWatermark = getDoubleProperty(MEMORY_LOW_WATERMARK, highWatermark * 0.8);
+
+        if (highWatermark < 0 || highWatermark > 1 || lowWatermark < 0 || lowWatermark > highWatermark)
+        {
+            throw new IllegalArgumentException("Invalid memory watermarks: " + highWatermark + ", " + lowWatermark);
+        }
+
+        this.memoryGovernor = (highWatermark > 0) ? new GuavaMemoryGovernor(this, highWatermark, lowWatermark) : null;
+
+        long maximumTotalWeight = getLongProperty(MAXIMUM_TOTAL_WEIGHT, 0);
+
+        if (maximumTotalWeight < 0)
+        {
+            throw new IllegalArgumentException("Invalid value for " + MAXIMUM_TOTAL_WEIGHT + ": " + maximumTotalWeight);
+        }
+
+        this.budget = (maximumTotalWeight > 0) ? new GuavaCacheBudget(this, maximumTotalWeight) : null;
     }
 
     @Override
@@ -105,10 +208,20 @@ public class GuavaCacheManager
                 throw new CacheException("This cache already exists!");
             }
 
-            Cache<K, V> cache = new GuavaCache<>(cacheName, completeConfiguration, this);
+            GuavaCache<K, V> cache = new GuavaCache<>(cacheName, completeConfiguration, this);
 
             caches.put(cacheName, cache);
 
+            scheduleMaintenance(cache);
+
+            if (budget != null)
+            {
+                scheduleBudget();
+
+                // the new cache gets its share right away
+                budget.rebalance();
+            }
+
             return cache;
         }
     }
@@ -171,13 +284,37 @@ public class GuavaCacheManager
     @Override
     public void enableManagement(String cacheName, boolean enabled)
     {
-        throw new UnsupportedOperationException("Not supported yet.");
+        checkState();
+
+        if (cacheName == null)
+        {
+            throw new NullPointerException();
+        }
+
+        Cache<?, ?> cache = caches.get(cacheName);
+
+        if (cache != null)
+        {
+            cache.unwrap(GuavaCache.class).setManagementEnabled(enabled);
+        }
     }
 
     @Override
     public void enableStatistics(String cacheName, boolean enabled)
     {
-        throw new UnsupportedOperationException("Not supported yet.");
+        checkState();
+
+        if (cacheName == null)
+        {
+            throw new NullPointerException();
+        }
+
+        Cache<?, ?> cache = caches.get(cacheName);
+
+        if (cache != null)
+        {
+            cache.unwrap(GuavaCache.class).setStatisticsEnabled(enabled);
+        }
     }
 
     @Override
@@ -199,6 +336,37 @@ public class GuavaCacheManager
 
             caches.clear();
 
+            loaderExecutorService.shutdown();
+
+            if (memoryGovernor != null)
+            {
+                memoryGovernor.close();
+            }
+
+            synchronized (lock)
+            {
+                if (maintenanceExecutorService != null)
+                {
+                    maintenanceExecutorService.shutdownNow();
+                }
+            }
+
+            if (eventDispatcher != null)
+            {
+                // queued events are still delivered
+                eventDispatcher.shutdown();
+
+                try
+                {
+                    ManagementFactory.getPlatformMBeanServer()
+                                     .unregisterMBean(new ObjectName(eventDispatcher.getObjectName()));
+                }
+                catch (OperationsException | MBeanException e)
+                {
+                    // no-op
+                }
+            }
+
             ((GuavaCachingProvider) cachingProvider).close(this);
         }
     }
@@ -225,6 +393,234 @@ public class GuavaCacheManager
         caches.remove(cache.getName());
     }
 
+    protected ExecutorService getLoaderExecutorService()
+    {
+        return loaderExecutorService;
+    }
+
+    protected Collection<Cache<?, ?>> getCaches()
+    {
+        return caches.values();
+    }
+
+    protected ScheduledExecutorService getMaintenanceExecutorService()
+    {
+        synchronized (lock)
+        {
+            if (maintenanceExecutorService == null)
+            {
+                // one thread for all the caches of this manager, only started when first needed
+                ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("guava-jcache-maintenance")
+                                                                        .setDaemon(true)
+                                                                        .build();
+
+                ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+
+                executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+                maintenanceExecutorService = executor;
+
+                if (closed.get())
+                {
+                    executor.shutdownNow();
+                }
+            }
+
+            return maintenanceExecutorService;
+        }
+    }
+
+    /**
+     * The heap pressure governor of this manager, null unless {@link #MEMORY_HIGH_WATERMARK} is set.
+     */
+    public GuavaMemoryGovernor getMemoryGovernor()
+    {
+        return memoryGovernor;
+    }
+
+    /**
+     * The budget shared by the caches of this manager, null unless {@link #MAXIMUM_TOTAL_WEIGHT} is set.
+     */
+    public GuavaCacheBudget getBudget()
+    {
+        return budget;
+    }
+
+    protected String getCacheBuilderSpecification()
+    {
+        List<String> specification = new ArrayList<>();
+
+        for (String name : properties.stringPropertyNames())
+        {
+            if (!MANAGER_PROPERTIES.contains(name) && !name.startsWith(STORAGE_ENGINE + "."))
+            {
+                String value = properties.getProperty(name);
+
+                // keys such as weakKeys take no value
+                specification.add(value.trim().isEmpty() ? name : name + "=" + value);
+            }
+        }
+
+        return Joiner.on(',').join(specification);
+    }
+
+    /**
+     * Time source of the expiration of every cache of this manager.
+     */
+    public Ticker getTicker()
+    {
+        return ticker;
+    }
+
+    protected GuavaStorageEngine getStorageEngine(String cacheName)
+    {
+        String name = properties.getProperty(STORAGE_ENGINE + "." + cacheName,
+                                             properties.getProperty(STORAGE_ENGINE, GUAVA_STORAGE_ENGINE)).trim();
+
+        switch (name)
+        {
+            case GUAVA_STORAGE_ENGINE:
+                return new GuavaCacheBuilderEngine();
+
+            case CONCURRENT_MAP_STORAGE_ENGINE:
+                return new GuavaConcurrentMapEngine();
+
+            default:
+                try
+                {
+                    return Class.forName(name, true, classLoader)
+                                .asSubclass(GuavaStorageEngine.class)
+                                .getConstructor()
+                                .newInstance();
+                }
+                catch (ReflectiveOperationException | ClassCastException e)
+                {
+                    throw new IllegalArgumentException("Invalid value for " + STORAGE_ENGINE + ": " + name, e);
+                }
+        }
+    }
+
+    private Ticker createTicker(String name)
+    {
+        switch (name)
+        {
+            case SYSTEM_TICKER:
+                return Ticker.systemTicker();
+
+            case COARSE_TICKER:
+                return GuavaCoarseTicker.getInstance();
+
+            case MANUAL_TICKER:
+                return new GuavaManualTicker();
+
+            default:
+                try
+                {
+                    Class<? extends Ticker> tickerClass = Class.forName(name, true, classLoader).asSubclass(Ticker.class);
+
+                    return tickerClass.getConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException | ClassCastException e)
+                {
+                    throw new IllegalArgumentException("Invalid value for " + TICKER + ": " + name, e);
+                }
+        }
+    }
+
+    // guarded by lock
+    private void scheduleMaintenance(GuavaCache<?, ?> cache)
+    {
+        if (maintenanceInterval <= 0)
+        {
+            return;
+        }
+
+        getMaintenanceExecutorService().schedule(new Maintenance(cache), maintenanceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // guarded by lock
+    private void scheduleBudget()
+    {
+        if (!budgetScheduled)
+        {
+            long interval = (maintenanceInterval > 0) ? maintenanceInterval : DEFAULT_MAINTENANCE_INTERVAL;
+
+            getMaintenanceExecutorService().scheduleWithFixedDelay(budget, interval, interval, TimeUnit.MILLISECONDS);
+
+            budgetScheduled = true;
+        }
+    }
+
+    private double getDoubleProperty(String name, double defaultValue)
+    {
+        String value = properties.getProperty(name);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    private long getLongProperty(String name, long defaultValue)
+    {
+        String value = properties.getProperty(name);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    protected GuavaCacheEventDispatcher getEventDispatcher()
+    {
+        GuavaCacheEventDispatcher dispatcher = eventDispatcher;
+
+        if (dispatcher == null)
+        {
+            synchronized (lock)
+            {
+                dispatcher = eventDispatcher;
+
+                if (dispatcher == null)
+                {
+                    dispatcher = new GuavaCacheEventDispatcher(this, Runtime.getRuntime().availableProcessors());
+
+                    try
+                    {
+                        ManagementFactory.getPlatformMBeanServer()
+                                         .registerMBean(dispatcher, new ObjectName(dispatcher.getObjectName()));
+                    }
+                    catch (OperationsException | MBeanException e)
+                    {
+                        throw new CacheException(e);
+                    }
+
+                    eventDispatcher = dispatcher;
+                }
+            }
+        }
+
+        return dispatcher;
+    }
+
     private void checkState()
     {
         if (isClosed())
@@ -245,15 +641,6 @@ public class GuavaCacheManager
             throw new NullPointerException("Expiry policy factory cannot be null!");
         }
 
-        ExpiryPolicy expiryPolicy = configuration.getExpiryPolicyFactory().create();
-
-        if (!(expiryPolicy instanceof EternalExpiryPolicy)
-            && !(expiryPolicy instanceof ModifiedExpiryPolicy)
-            && !(expiryPolicy instanceof TouchedExpiryPolicy))
-        {
-            throw new UnsupportedOperationException("Invalid expiry policy configuration!");
-        }
-
         if (configuration.isReadThrough() && configuration.getCacheLoaderFactory() == null)
         {
             throw new IllegalArgumentException("Invalid read through cache configuration!");
@@ -264,4 +651,64 @@ public class GuavaCacheManager
             throw new UnsupportedOperationException("Invalid write through cache configuration!");
         }
     }
+
+    private final class Maintenance
+        implements Runnable
+    {
+        private final GuavaCache<?, ?> cache;
+
+        private long delay = maintenanceInterval;
+        private long size = -1;
+
+        public Maintenance(GuavaCache<?, ?> cache)
+        {
+            this.cache = cache;
+        }
+
+        @Override
+        public void run()
+        {
+            if (cache.isClosed() || closed.get())
+            {
+                return;
+            }
+
+            try
+            {
+                cache.cleanUp();
+            }
+            catch (RuntimeException e)
+            {
+                // a failing listener must not stop the maintenance of this cache
+            }
+
+            boolean statisticsEnabled = cache.isStatisticsEnabled();
+
+            if (statisticsEnabled)
+            {
+                cache.getRollingStatistics().tick();
+            }
+
+            long currentSize = cache.size();
+
+            // an idle cache is visited less and less often, any change brings it back to the base interval
+            delay = (currentSize != size) ? maintenanceInterval : Math.min(delay * 2, maintenanceMaximumInterval);
+            size = currentSize;
+
+            // but the rolling windows need a snapshot every interval while statistics are on
+            if (statisticsEnabled)
+            {
+                delay = Math.min(delay, TimeUnit.SECONDS.toMillis(GuavaCacheRollingStatistics.INTERVAL));
+            }
+
+            try
+            {
+                maintenanceExecutorService.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the manager is closing
+            }
+        }
+    }
 }
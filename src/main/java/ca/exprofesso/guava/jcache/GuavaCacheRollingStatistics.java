@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.cache.Cache;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Statistics over the last 1, 5 and 15 minutes.
+ * <p>
+ * A ring of snapshots of the cumulative counters is taken every {@link #INTERVAL} seconds, and a window is the
+ * difference between the current counters and the snapshot taken at its start. Nothing is added on the cache's hot
+ * path: snapshots are taken by {@link #tick()}, which the maintenance of the cache calls at least every interval while
+ * statistics are enabled, and lazily on read, by a single thread elected with a CAS. Without maintenance
+ * (maintenanceInterval=0), a window may thus start earlier than its duration, its rates are still per second.
+ */
+public class GuavaCacheRollingStatistics
+    implements GuavaCacheRollingStatisticsMXBean
+{
+    public static final long INTERVAL = 5;
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(INTERVAL);
+    private static final int SAMPLES = (int) (TimeUnit.MINUTES.toSeconds(15) / INTERVAL) + 1;
+
+    private final Cache<?, ?> cache;
+    private final GuavaCacheStatistics statistics;
+
+    private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<>(SAMPLES);
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong lastTick;
+
+    public GuavaCacheRollingStatistics(Cache<?, ?> cache, GuavaCacheStatistics statistics)
+    {
+        this.cache = cache;
+        this.statistics = statistics;
+
+        long now = System.nanoTime();
+
+        this.samples.set(0, new Sample(0, now, statistics.snapshot()));
+        this.lastTick = new AtomicLong(now);
+    }
+
+    public void tick()
+    {
+        long now = System.nanoTime();
+        long last = lastTick.get();
+
+        if ((now - last) >= INTERVAL_NANOS && lastTick.compareAndSet(last, now))
+        {
+            long next = ticks.get() + 1;
+
+            // the sample is stored before it is published, so readers never see a stale slot as the latest one
+            samples.set((int) (next % SAMPLES), new Sample(next, now, statistics.snapshot()));
+            ticks.set(next);
+        }
+    }
+
+    @Override
+    public Window getOneMinute()
+    {
+        return getWindow(1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public Window getFiveMinutes()
+    {
+        return getWindow(5, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public Window getFifteenMinutes()
+    {
+        return getWindow(15, TimeUnit.MINUTES);
+    }
+
+    public Window getWindow(long duration, TimeUnit unit)
+    {
+        tick();
+
+        long now = System.nanoTime();
+        long start = now - unit.toNanos(duration);
+
+        GuavaCacheStatistics.Snapshot current = statistics.snapshot();
+
+        // the most recent sample taken at or before the start of the window, or the oldest one still in the ring
+        Sample from = null;
+
+        // a slot overwritten by a tick since ticks was read no longer holds the sample looked for, neither do the ones
+        // before it: the scan stops there, and starts over if even the latest sample was overwritten
+        while (from == null)
+        {
+            long last = ticks.get();
+
+            for (long i = last; i >= Math.max(0, last - SAMPLES + 1); i--)
+            {
+                Sample sample = samples.get((int) (i % SAMPLES));
+
+                if (sample == null || sample.tick != i)
+                {
+                    break;
+                }
+
+                from = sample;
+
+                if (sample.time <= start)
+                {
+                    break;
+                }
+            }
+        }
+
+        return new Window(current.minus(from.snapshot), Math.max(1, now - from.time));
+    }
+
+    protected String getObjectName()
+    {
+        return getObjectName(cache);
+    }
+
+    protected static String getObjectName(Cache<?, ?> c)
+    {
+        StringBuilder builder = new StringBuilder("javax.cache:type=CacheRollingStatistics");
+
+        builder.append(",CacheManager=").append(c.getCacheManager().getURI().toString().replaceAll(":", "//"));
+        builder.append(",Cache=").append(c.getName());
+
+        return builder.toString();
+    }
+
+    private static final class Sample
+    {
+        // the sequence number of the sample, which tells a slot overwritten since it was looked for
+        private final long tick;
+        private final long time;
+        private final GuavaCacheStatistics.Snapshot snapshot;
+
+        private Sample(long tick, long time, GuavaCacheStatistics.Snapshot snapshot)
+        {
+            this.tick = tick;
+            this.time = time;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Rates (per second) and ratios over a window; times are in microseconds.
+     */
+    public static final class Window
+    {
+        private final long hits;
+        private final long misses;
+        private final long loads;
+        private final long evictions;
+        private final float hitRate;
+        private final float missRate;
+        private final float loadRate;
+        private final float evictionRate;
+        private final float hitRatio;
+        private final float missRatio;
+        private final float averageLoadTime;
+
+        private Window(GuavaCacheStatistics.Snapshot delta, long nanos)
+        {
+            float seconds = (float) nanos / TimeUnit.SECONDS.toNanos(1);
+
+            long gets = delta.getGets();
+
+            this.hits = delta.getHits();
+            this.misses = delta.getMisses();
+            this.loads = delta.getLoadSuccesses() + delta.getLoadExceptions();
+            this.evictions = delta.getEvictions();
+            this.hitRate = hits / seconds;
+            this.missRate = misses / seconds;
+            this.loadRate = loads / seconds;
+            this.evictionRate = evictions / seconds;
+            this.hitRatio = (gets == 0) ? 1F : ((float) hits / gets);
+            this.missRatio = (gets == 0) ? 0F : ((float) misses / gets);
+            this.averageLoadTime = (loads == 0) ? 0F : (((float) delta.getTotalLoadTime() / loads) / 1000);
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        public long getLoads()
+        {
+            return loads;
+        }
+
+        public long getEvictions()
+        {
+            return evictions;
+        }
+
+        public float getHitRate()
+        {
+            return hitRate;
+        }
+
+        public float getMissRate()
+        {
+            return missRate;
+        }
+
+        public float getLoadRate()
+        {
+            return loadRate;
+        }
+
+        public float getEvictionRate()
+        {
+            return evictionRate;
+        }
+
+        public float getHitRatio()
+        {
+            return hitRatio;
+        }
+
+        public float getMissRatio()
+        {
+            return missRatio;
+        }
+
+        public float getAverageLoadTime()
+        {
+            return averageLoadTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                              .add("hits", hits)
+                              .add("misses", misses)
+                              .add("loads", loads)
+                              .add("evictions", evictions)
+                              .add("hitRatio", hitRatio)
+                              .add("averageLoadTime", averageLoadTime)
+                              .toString();
+        }
+    }
+}
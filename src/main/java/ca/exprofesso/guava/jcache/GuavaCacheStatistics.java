@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Cache statistics recorded by {@link GuavaCache} itself.
+ * <p>
+ * Every counter is a {@link LongAdder}: under contention updates are spread over padded cells (one per contending
+ * thread), so recording never contends on a single memory location and never shares a cache line between counters.
+ */
+public class GuavaCacheStatistics
+{
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadExceptions = new LongAdder();
+
+    private final LongAdder totalGetTime = new LongAdder();
+    private final LongAdder totalPutTime = new LongAdder();
+    private final LongAdder totalRemoveTime = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    public void recordHits(long count)
+    {
+        hits.add(count);
+    }
+
+    public void recordMisses(long count)
+    {
+        misses.add(count);
+    }
+
+    public void recordGetTime(long nanos)
+    {
+        totalGetTime.add(nanos);
+    }
+
+    public void recordPuts(long count, long nanos)
+    {
+        puts.add(count);
+        totalPutTime.add(nanos);
+    }
+
+    public void recordRemovals(long count, long nanos)
+    {
+        removals.add(count);
+        totalRemoveTime.add(nanos);
+    }
+
+    public void recordEviction()
+    {
+        evictions.increment();
+    }
+
+    public void recordEvictions(long count)
+    {
+        evictions.add(count);
+    }
+
+    public void recordLoadSuccess(long nanos)
+    {
+        loadSuccesses.increment();
+        totalLoadTime.add(nanos);
+    }
+
+    public void recordLoadException(long nanos)
+    {
+        loadExceptions.increment();
+        totalLoadTime.add(nanos);
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getPuts()
+    {
+        return puts.sum();
+    }
+
+    public long getRemovals()
+    {
+        return removals.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    public long getTotalGetTime()
+    {
+        return totalGetTime.sum();
+    }
+
+    public long getTotalPutTime()
+    {
+        return totalPutTime.sum();
+    }
+
+    public long getTotalRemoveTime()
+    {
+        return totalRemoveTime.sum();
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(hits.sum(),
+                            misses.sum(),
+                            puts.sum(),
+                            removals.sum(),
+                            evictions.sum(),
+                            loadSuccesses.sum(),
+                            loadExceptions.sum(),
+                            totalGetTime.sum(),
+                            totalPutTime.sum(),
+                            totalRemoveTime.sum(),
+                            totalLoadTime.sum());
+    }
+
+    public static final class Snapshot
+    {
+        public static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+        private final long hits;
+        private final long misses;
+        private final long puts;
+        private final long removals;
+        private final long evictions;
+        private final long loadSuccesses;
+        private final long loadExceptions;
+        private final long totalGetTime;
+        private final long totalPutTime;
+        private final long totalRemoveTime;
+        private final long totalLoadTime;
+
+        public Snapshot(long hits, long misses, long puts, long removals, long evictions, long loadSuccesses,
+                        long loadExceptions, long totalGetTime, long totalPutTime, long totalRemoveTime,
+                        long totalLoadTime)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.puts = puts;
+            this.removals = removals;
+            this.evictions = evictions;
+            this.loadSuccesses = loadSuccesses;
+            this.loadExceptions = loadExceptions;
+            this.totalGetTime = totalGetTime;
+            this.totalPutTime = totalPutTime;
+            this.totalRemoveTime = totalRemoveTime;
+            this.totalLoadTime = totalLoadTime;
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        public long getGets()
+        {
+            return hits + misses;
+        }
+
+        public long getPuts()
+        {
+            return puts;
+        }
+
+        public long getRemovals()
+        {
+            return removals;
+        }
+
+        public long getEvictions()
+        {
+            return evictions;
+        }
+
+        public long getLoadSuccesses()
+        {
+            return loadSuccesses;
+        }
+
+        public long getLoadExceptions()
+        {
+            return loadExceptions;
+        }
+
+        public long getTotalGetTime()
+        {
+            return totalGetTime;
+        }
+
+        public long getTotalPutTime()
+        {
+            return totalPutTime;
+        }
+
+        public long getTotalRemoveTime()
+        {
+            return totalRemoveTime;
+        }
+
+        public long getTotalLoadTime()
+        {
+            return totalLoadTime;
+        }
+
+        public Snapshot minus(Snapshot other)
+        {
+            return new Snapshot(Math.max(0, hits - other.hits),
+                                Math.max(0, misses - other.misses),
+                                Math.max(0, puts - other.puts),
+                                Math.max(0, removals - other.removals),
+                                Math.max(0, evictions - other.evictions),
+                                Math.max(0, loadSuccesses - other.loadSuccesses),
+                                Math.max(0, loadExceptions - other.loadExceptions),
+                                Math.max(0, totalGetTime - other.totalGetTime),
+                                Math.max(0, totalPutTime - other.totalPutTime),
+                                Math.max(0, totalRemoveTime - other.totalRemoveTime),
+                                Math.max(0, totalLoadTime - other.totalLoadTime));
+        }
+
+        public CacheStats toCacheStats()
+        {
+            return new CacheStats(hits, misses, loadSuccesses, loadExceptions, totalLoadTime, evictions);
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                              .add("hits", hits)
+                              .add("misses", misses)
+                              .add("puts", puts)
+                              .add("removals", removals)
+                              .add("evictions", evictions)
+                              .add("loadSuccesses", loadSuccesses)
+                              .add("loadExceptions", loadExceptions)
+                              .add("totalGetTime", totalGetTime)
+                              .add("totalPutTime", totalPutTime)
+                              .add("totalRemoveTime", totalRemoveTime)
+                              .add("totalLoadTime", totalLoadTime)
+                              .toString();
+        }
+    }
+}
@@ -15,16 +15,17 @@
  */
 package ca.exprofesso.guava.jcache;
 
-import javax.cache.Cache;
+import java.util.Collections;
+import java.util.Map;
 
-import com.google.common.cache.CacheStats;
+import javax.cache.Cache;
 
 public class GuavaCacheStatisticsMXBean
-    implements javax.cache.management.CacheStatisticsMXBean
+    implements GuavaCacheStatisticsManagementMXBean
 {
     private final Cache<?, ?> cache;
 
-    private CacheStats snapshot = new CacheStats(0, 0, 0, 0, 0, 0);
+    private volatile GuavaCacheStatistics.Snapshot baseline = GuavaCacheStatistics.Snapshot.EMPTY;
 
     public GuavaCacheStatisticsMXBean(Cache<?, ?> cache)
     {
@@ -34,87 +35,124 @@ public class GuavaCacheStatisticsMXBean
     @Override
     public void clear()
     {
-        CacheStats cacheStats = cache.unwrap(GuavaCache.class).stats();
+        baseline = statistics().snapshot();
+
+        GuavaCacheCosts<?> costs = cache.unwrap(GuavaCache.class).getCosts();
 
-        snapshot =
-            new CacheStats(cacheStats.hitCount(),
-                           cacheStats.missCount(),
-                           cacheStats.loadSuccessCount(),
-                           cacheStats.loadExceptionCount(),
-                           cacheStats.totalLoadTime(),
-                           cacheStats.evictionCount());
+        if (costs != null)
+        {
+            costs.clearStatistics();
+        }
     }
 
     @Override
     public long getCacheHits()
     {
-        return cache.unwrap(GuavaCache.class).stats().minus(snapshot).hitCount();
+        return Math.max(0, statistics().getHits() - baseline.getHits());
     }
 
     @Override
     public float getCacheHitPercentage()
     {
-        return (float) cache.unwrap(GuavaCache.class).stats().minus(snapshot).hitRate();
+        GuavaCacheStatistics.Snapshot snapshot = snapshot();
+
+        long gets = snapshot.getGets();
+
+        return (gets == 0) ? 1F : (float) snapshot.getHits() / gets;
     }
 
     @Override
     public long getCacheMisses()
     {
-        return cache.unwrap(GuavaCache.class).stats().minus(snapshot).missCount();
+        return Math.max(0, statistics().getMisses() - baseline.getMisses());
     }
 
     @Override
     public float getCacheMissPercentage()
     {
-        return (float) cache.unwrap(GuavaCache.class).stats().minus(snapshot).missRate();
+        GuavaCacheStatistics.Snapshot snapshot = snapshot();
+
+        long gets = snapshot.getGets();
+
+        return (gets == 0) ? 0F : (float) snapshot.getMisses() / gets;
     }
 
     @Override
     public long getCacheGets()
     {
-        return cache.unwrap(GuavaCache.class).stats().minus(snapshot).loadCount();
+        return getCacheHits() + getCacheMisses();
     }
 
     @Override
     public long getCachePuts()
     {
-        return -1; // unsupported
+        return Math.max(0, statistics().getPuts() - baseline.getPuts());
     }
 
     @Override
     public long getCacheRemovals()
     {
-        return -1; // unsupported
+        return Math.max(0, statistics().getRemovals() - baseline.getRemovals());
     }
 
     @Override
     public long getCacheEvictions()
     {
-        return cache.unwrap(GuavaCache.class).stats().minus(snapshot).evictionCount();
+        return Math.max(0, statistics().getEvictions() - baseline.getEvictions());
     }
 
     @Override
     public float getAverageGetTime()
     {
-        return (float) (cache.unwrap(GuavaCache.class).stats().minus(snapshot).averageLoadPenalty() / 1000);
+        GuavaCacheStatistics.Snapshot snapshot = snapshot();
+
+        return average(snapshot.getTotalGetTime(), snapshot.getGets());
     }
 
     @Override
     public float getAveragePutTime()
     {
-        return -1; // unsupported
+        GuavaCacheStatistics.Snapshot snapshot = snapshot();
+
+        return average(snapshot.getTotalPutTime(), snapshot.getPuts());
     }
 
     @Override
     public float getAverageRemoveTime()
     {
-        return -1; // unsupported
+        GuavaCacheStatistics.Snapshot snapshot = snapshot();
+
+        return average(snapshot.getTotalRemoveTime(), snapshot.getRemovals());
+    }
+
+    @Override
+    public Map<String, Float> getCostHitPercentages()
+    {
+        GuavaCacheCosts<?> costs = cache.unwrap(GuavaCache.class).getCosts();
+
+        return (costs != null) ? costs.getHitPercentages() : Collections.<String, Float>emptyMap();
     }
 
     @Override
     public String toString()
     {
-        return cache.unwrap(GuavaCache.class).stats().minus(snapshot).toString();
+        return snapshot().toString();
+    }
+
+    private GuavaCacheStatistics statistics()
+    {
+        return cache.unwrap(GuavaCache.class).getStatistics();
+    }
+
+    private GuavaCacheStatistics.Snapshot snapshot()
+    {
+        return statistics().snapshot().minus(baseline);
+    }
+
+    private static float average(long totalNanos, long count)
+    {
+        // in microseconds
+        return (count == 0) ? 0 : ((float) totalNanos / count) / 1000;
     }
 
     protected String getObjectName()
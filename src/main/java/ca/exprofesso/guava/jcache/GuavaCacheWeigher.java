@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps the total weight of a cache, which Guava does not expose.
+ * <p>
+ * Guava weighs a value once, when it is stored, and keeps that weight in the entry. The weight charged is recorded per
+ * key as well: it is released in full when the key is written again, or when the removal of that very value is
+ * notified, so that a value mutated while cached cannot make the total drift. This record takes a map node per cached
+ * entry on top of Guava's own (about 50 bytes), which {@link GuavaSizeEstimator} counts in, and holds the value
+ * strongly, which is why weak or soft references cannot be weighed.
+ * <p>
+ * The weight of the pinned keys is also kept apart, a key being moved in or out of it as it is pinned or unpinned,
+ * without the entry being stored again.
+ */
+public class GuavaCacheWeigher<K, V>
+    implements Weigher<K, V>
+{
+    private final Weigher<? super K, ? super V> delegate;
+
+    // null unless the cache can pin keys
+    private final Set<K> pinned;
+
+    private final LongAdder totalWeight = new LongAdder();
+    private final LongAdder pinnedWeight = new LongAdder();
+
+    // the weight charged for the value stored under each key
+    private final ConcurrentMap<K, Charge<V>> charges = new ConcurrentHashMap<>();
+
+    public GuavaCacheWeigher(Weigher<? super K, ? super V> delegate)
+    {
+        this(delegate, null);
+    }
+
+    public GuavaCacheWeigher(Weigher<? super K, ? super V> delegate, Set<K> pinned)
+    {
+        this.delegate = delegate;
+        this.pinned = pinned;
+    }
+
+    @Override
+    public int weigh(K key, V value)
+    {
+        int weight = delegate.weigh(key, value);
+
+        // the value replaced, if any, is no longer charged: its removal may only be notified later on
+        charges.compute
+        (
+            key,
+            (k, previous) ->
+            {
+                if (previous != null)
+                {
+                    add(previous, -1);
+                }
+
+                Charge<V> charge = new Charge<>(value, weight, (pinned != null && pinned.contains(k)));
+
+                add(charge, 1);
+
+                return charge;
+            }
+        );
+
+        return weight;
+    }
+
+    /**
+     * Releases the weight charged for {@code value}, unless the key has been written since.
+     */
+    public void release(K key, V value)
+    {
+        charges.computeIfPresent
+        (
+            key,
+            (k, charge) ->
+            {
+                if (charge.value != value)
+                {
+                    return charge;
+                }
+
+                add(charge, -1);
+
+                return null;
+            }
+        );
+    }
+
+    /**
+     * Moves the weight charged for the key in or out of the pinned weight, once the key was added to or removed from
+     * the pinned keys.
+     */
+    public void setPinned(K key, boolean pinned)
+    {
+        charges.computeIfPresent
+        (
+            key,
+            (k, charge) ->
+            {
+                if (charge.pinned == pinned)
+                {
+                    return charge;
+                }
+
+                pinnedWeight.add(pinned ? charge.weight : -charge.weight);
+
+                return new Charge<>(charge.value, charge.weight, pinned);
+            }
+        );
+    }
+
+    public long getTotalWeight()
+    {
+        return totalWeight.sum();
+    }
+
+    public long getPinnedWeight()
+    {
+        return pinnedWeight.sum();
+    }
+
+    private void add(Charge<V> charge, int sign)
+    {
+        totalWeight.add(sign * (long) charge.weight);
+
+        if (charge.pinned)
+        {
+            pinnedWeight.add(sign * (long) charge.weight);
+        }
+    }
+
+    private static final class Charge<V>
+    {
+        private final V value;
+        private final int weight;
+        private final boolean pinned;
+
+        public Charge(V value, int weight, boolean pinned)
+        {
+            this.value = value;
+            this.weight = weight;
+            this.pinned = pinned;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A ticker that reads a timestamp refreshed by a background thread, instead of calling {@link System#nanoTime()}.
+ * <p>
+ * Reading it is a single volatile load, at the price of being behind the system clock by up to its resolution.
+ */
+public class GuavaCoarseTicker
+    extends Ticker
+{
+    public static final long RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // one refresh thread for the whole JVM, started on first use
+    private static final GuavaCoarseTicker INSTANCE = new GuavaCoarseTicker(RESOLUTION);
+
+    private volatile long time = System.nanoTime();
+
+    private GuavaCoarseTicker(final long resolution)
+    {
+        Thread thread = new Thread("guava-jcache-ticker")
+        {
+            @Override
+            public void run()
+            {
+                while (!isInterrupted())
+                {
+                    LockSupport.parkNanos(resolution);
+
+                    time = System.nanoTime();
+                }
+            }
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static GuavaCoarseTicker getInstance()
+    {
+        return INSTANCE;
+    }
+
+    @Override
+    public long read()
+    {
+        return time;
+    }
+}
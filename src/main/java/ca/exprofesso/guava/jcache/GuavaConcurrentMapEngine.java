@@ -0,0 +1,512 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An unbounded storage engine backed by a {@link ConcurrentHashMap}, for reference data that must never be evicted.
+ * <p>
+ * The properties of the cache manager do not apply: there is no size bound and no reference strength, and the
+ * expiration is left to the cache. Entries still count toward the weight of the cache, so that a budget, the memory
+ * governor or the bounds that the cache keeps itself (cost-aware eviction, pinned entries) can bound it.
+ */
+public class GuavaConcurrentMapEngine
+    implements GuavaStorageEngine
+{
+    @Override
+    public <K, V> Cache<K, V> create(GuavaStorageSettings<K, V> settings)
+    {
+        return new ConcurrentMapCache<>(settings);
+    }
+
+    @Override
+    public boolean isExpiring()
+    {
+        return false;
+    }
+
+    private static final class ConcurrentMapCache<K, V>
+        extends AbstractLoadingCache<K, V>
+    {
+        private final NotifyingMap<K, V> map;
+        private final CacheLoader<K, V> loader;
+
+        // the loads in progress, which the other readers of the key wait for, like Guava's loading references
+        private final ConcurrentMap<K, Loading<V>> loading = new ConcurrentHashMap<>();
+
+        public ConcurrentMapCache(GuavaStorageSettings<K, V> settings)
+        {
+            this.map = new NotifyingMap<>(settings.getWeigher(), settings.getRemovalListener());
+            this.loader = settings.getLoader();
+        }
+
+        @Override
+        public V getIfPresent(Object key)
+        {
+            return map.get(key);
+        }
+
+        @Override
+        public V get(K key)
+            throws ExecutionException
+        {
+            if (loader == null)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            V value = map.get(key);
+
+            if (value != null)
+            {
+                return value;
+            }
+
+            Loading<V> load = new Loading<>();
+            Loading<V> other = loading.putIfAbsent(key, load);
+
+            if (other != null)
+            {
+                return other.await(key);
+            }
+
+            // not under the lock of the map, so that the loader may use the cache, other keys included
+            try
+            {
+                value = map.get(key);
+
+                if (value == null)
+                {
+                    value = load(key);
+
+                    V present = map.putIfAbsent(key, value);
+
+                    if (present != null)
+                    {
+                        value = present;
+                    }
+                }
+
+                load.future.complete(value);
+
+                return value;
+            }
+            catch (RuntimeException | Error e)
+            {
+                load.future.completeExceptionally(e);
+
+                if (e instanceof CheckedLoadException)
+                {
+                    throw new ExecutionException(e.getCause());
+                }
+
+                throw e;
+            }
+            finally
+            {
+                loading.remove(key, load);
+            }
+        }
+
+        @Override
+        public void put(K key, V value)
+        {
+            map.put(key, value);
+        }
+
+        @Override
+        public void invalidate(Object key)
+        {
+            map.remove(key);
+        }
+
+        @Override
+        public void invalidateAll()
+        {
+            map.clear();
+        }
+
+        @Override
+        public long size()
+        {
+            return map.size();
+        }
+
+        @Override
+        public ConcurrentMap<K, V> asMap()
+        {
+            return map;
+        }
+
+        // same exceptions as a Guava LoadingCache
+        private V load(K key)
+        {
+            V value;
+
+            try
+            {
+                value = loader.load(key);
+            }
+            catch (RuntimeException e)
+            {
+                throw new UncheckedExecutionException(e);
+            }
+            catch (Error e)
+            {
+                throw new ExecutionError(e);
+            }
+            catch (Exception e)
+            {
+                throw new CheckedLoadException(e);
+            }
+
+            if (value == null)
+            {
+                throw new CacheLoader.InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+            }
+
+            return value;
+        }
+    }
+
+    private static final class Loading<V>
+    {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final Thread owner = Thread.currentThread();
+
+        public V await(Object key)
+            throws ExecutionException
+        {
+            // the thread loading the key would wait for itself
+            if (owner == Thread.currentThread())
+            {
+                throw new IllegalStateException("Recursive load of: " + key);
+            }
+
+            try
+            {
+                return Uninterruptibles.getUninterruptibly(future);
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof CheckedLoadException)
+                {
+                    throw new ExecutionException(cause.getCause());
+                }
+                else if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+
+                throw (Error) cause;
+            }
+        }
+    }
+
+    private static final class CheckedLoadException
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public CheckedLoadException(Exception cause)
+        {
+            super(cause);
+        }
+    }
+
+    /**
+     * Reports the removed and replaced values to the listener, and weighs the new ones, like the view of a Guava cache.
+     * Its collection views are read-only.
+     */
+    private static final class NotifyingMap<K, V>
+        extends AbstractMap<K, V>
+        implements ConcurrentMap<K, V>
+    {
+        private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+        private final Map<K, V> readOnly = Collections.unmodifiableMap(map);
+
+        private final Weigher<? super K, ? super V> weigher;
+        private final RemovalListener<K, V> removalListener;
+
+        public NotifyingMap(Weigher<? super K, ? super V> weigher, RemovalListener<K, V> removalListener)
+        {
+            this.weigher = weigher;
+            this.removalListener = removalListener;
+        }
+
+        @Override
+        public V get(Object key)
+        {
+            return map.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public int size()
+        {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return map.isEmpty();
+        }
+
+        @Override
+        public Set<K> keySet()
+        {
+            return readOnly.keySet();
+        }
+
+        @Override
+        public Collection<V> values()
+        {
+            return readOnly.values();
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet()
+        {
+            return readOnly.entrySet();
+        }
+
+        @Override
+        public V put(K key, V value)
+        {
+            Object[] oldValue = new Object[1];
+
+            write(key, (k, v) -> value, true, oldValue);
+
+            return (V) oldValue[0];
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value)
+        {
+            Object[] oldValue = new Object[1];
+
+            write(key, (k, v) -> (v != null) ? v : value, false, oldValue);
+
+            return (V) oldValue[0];
+        }
+
+        @Override
+        public V replace(K key, V value)
+        {
+            Object[] oldValue = new Object[1];
+
+            write(key, (k, v) -> (v != null) ? value : null, true, oldValue);
+
+            return (V) oldValue[0];
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue)
+        {
+            Object[] replaced = new Object[1];
+
+            // the listener is given the value that was actually replaced, which may only be equal to the expected one
+            map.computeIfPresent
+            (
+                key,
+                (k, v) ->
+                {
+                    if (!v.equals(oldValue))
+                    {
+                        return v;
+                    }
+
+                    weigh(k, newValue);
+
+                    replaced[0] = v;
+
+                    return newValue;
+                }
+            );
+
+            if (replaced[0] == null)
+            {
+                return false;
+            }
+
+            notify(key, (V) replaced[0], RemovalCause.REPLACED);
+
+            return true;
+        }
+
+        @Override
+        public V remove(Object key)
+        {
+            V oldValue = map.remove(key);
+
+            if (oldValue != null)
+            {
+                notify((K) key, oldValue, RemovalCause.EXPLICIT);
+            }
+
+            return oldValue;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value)
+        {
+            if (value == null)
+            {
+                return false;
+            }
+
+            Object[] removed = new Object[1];
+
+            map.computeIfPresent
+            (
+                (K) key,
+                (k, v) ->
+                {
+                    if (!v.equals(value))
+                    {
+                        return v;
+                    }
+
+                    removed[0] = v;
+
+                    return null;
+                }
+            );
+
+            if (removed[0] == null)
+            {
+                return false;
+            }
+
+            notify((K) key, (V) removed[0], RemovalCause.EXPLICIT);
+
+            return true;
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function)
+        {
+            return write(key, function, false, new Object[1]);
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> function)
+        {
+            return compute(key, (k, v) -> (v != null) ? function.apply(k, v) : null);
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> function)
+        {
+            V value = map.get(key);
+
+            return (value != null) ? value : compute(key, (k, v) -> (v != null) ? v : function.apply(k));
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> function)
+        {
+            return compute(key, (k, v) -> (v != null) ? function.apply(v, value) : value);
+        }
+
+        @Override
+        public void clear()
+        {
+            for (K key : map.keySet())
+            {
+                remove(key);
+            }
+        }
+
+        // the value written is weighed under the lock of the key, so that the charges of concurrent writes follow their
+        // order, and the value it replaces or removes is notified once the lock is released, as Guava does; the same
+        // instance is left unchanged by compute(), but replaced by put() and replace(), as in Guava
+        private V write(K key, BiFunction<? super K, ? super V, ? extends V> function, boolean replacing,
+                        Object[] oldValue)
+        {
+            boolean[] written = new boolean[1];
+
+            V value = map.compute
+            (
+                key,
+                (k, v) ->
+                {
+                    V newValue = function.apply(k, v);
+
+                    oldValue[0] = v;
+                    written[0] = (newValue != v || (replacing && newValue != null));
+
+                    if (written[0] && newValue != null)
+                    {
+                        weigh(k, newValue);
+                    }
+
+                    return newValue;
+                }
+            );
+
+            if (written[0] && oldValue[0] != null)
+            {
+                notify(key, (V) oldValue[0], (value != null) ? RemovalCause.REPLACED : RemovalCause.EXPLICIT);
+            }
+
+            return value;
+        }
+
+        private void weigh(K key, V value)
+        {
+            if (weigher != null)
+            {
+                weigher.weigh(key, value);
+            }
+        }
+
+        private void notify(K key, V value, RemovalCause cause)
+        {
+            removalListener.onRemoval(RemovalNotification.create(key, value, cause));
+        }
+    }
+}
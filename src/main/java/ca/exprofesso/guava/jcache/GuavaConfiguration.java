@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.Objects;
+
+import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableConfiguration;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * A {@link MutableConfiguration} with the settings that are specific to Guava caches.
+ * <p>
+ * The weigher is only used when the cache manager properties set {@code maximumWeight}; without one, the weight of
+ * an entry is estimated by {@link GuavaSizeEstimator}.
+ * <p>
+ * With an off-heap capacity, the entries evicted from the heap are moved to a {@link GuavaOffHeapStore} of that
+ * many bytes instead of being dropped, and brought back on their next use. The values must be serializable.
+ * <p>
+ * With the admission filter (which requires {@code maximumSize}), a full cache only takes a new key that is accessed
+ * more often than the keys it evicts, see {@link GuavaFrequencySketch}.
+ * <p>
+ * With cost-aware eviction (which also requires {@code maximumSize}), the cache evicts the entries that are the
+ * cheapest to load again first, see {@link GuavaCacheCosts}.
+ * <p>
+ * With a pinned quota, up to that many keys can be pinned with {@link GuavaCache#pin(Object)}: their entries are never
+ * evicted by size, and do not count against {@code maximumSize} or {@code maximumWeight}.
+ */
+public class GuavaConfiguration<K, V>
+    extends MutableConfiguration<K, V>
+{
+    private static final long serialVersionUID = 1L;
+
+    private Factory<? extends Weigher<? super K, ? super V>> weigherFactory;
+
+    private long offHeapCapacity;
+
+    private boolean admissionFilterEnabled;
+
+    private boolean costAwareEvictionEnabled;
+
+    private long pinnedQuota;
+
+    public GuavaConfiguration()
+    {
+    }
+
+    public GuavaConfiguration(CompleteConfiguration<K, V> configuration)
+    {
+        super(configuration);
+
+        if (configuration instanceof GuavaConfiguration)
+        {
+            this.weigherFactory = ((GuavaConfiguration<K, V>) configuration).getWeigherFactory();
+            this.offHeapCapacity = ((GuavaConfiguration<K, V>) configuration).getOffHeapCapacity();
+            this.admissionFilterEnabled = ((GuavaConfiguration<K, V>) configuration).isAdmissionFilterEnabled();
+            this.costAwareEvictionEnabled = ((GuavaConfiguration<K, V>) configuration).isCostAwareEvictionEnabled();
+            this.pinnedQuota = ((GuavaConfiguration<K, V>) configuration).getPinnedQuota();
+        }
+    }
+
+    public Factory<? extends Weigher<? super K, ? super V>> getWeigherFactory()
+    {
+        return weigherFactory;
+    }
+
+    public GuavaConfiguration<K, V> setWeigherFactory(Factory<? extends Weigher<? super K, ? super V>> factory)
+    {
+        this.weigherFactory = factory;
+
+        return this;
+    }
+
+    public long getOffHeapCapacity()
+    {
+        return offHeapCapacity;
+    }
+
+    /**
+     * @param capacity in bytes, 0 (the default) for no off-heap tier
+     */
+    public GuavaConfiguration<K, V> setOffHeapCapacity(long capacity)
+    {
+        if (capacity < 0)
+        {
+            throw new IllegalArgumentException("Invalid off-heap capacity: " + capacity);
+        }
+
+        this.offHeapCapacity = capacity;
+
+        return this;
+    }
+
+    public boolean isAdmissionFilterEnabled()
+    {
+        return admissionFilterEnabled;
+    }
+
+    public GuavaConfiguration<K, V> setAdmissionFilterEnabled(boolean enabled)
+    {
+        this.admissionFilterEnabled = enabled;
+
+        return this;
+    }
+
+    public boolean isCostAwareEvictionEnabled()
+    {
+        return costAwareEvictionEnabled;
+    }
+
+    public GuavaConfiguration<K, V> setCostAwareEvictionEnabled(boolean enabled)
+    {
+        this.costAwareEvictionEnabled = enabled;
+
+        return this;
+    }
+
+    public long getPinnedQuota()
+    {
+        return pinnedQuota;
+    }
+
+    /**
+     * @param quota the number of keys that can be pinned, 0 (the default) for none
+     */
+    public GuavaConfiguration<K, V> setPinnedQuota(long quota)
+    {
+        if (quota < 0)
+        {
+            throw new IllegalArgumentException("Invalid pinned quota: " + quota);
+        }
+
+        this.pinnedQuota = quota;
+
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        if (!super.equals(object) || !(object instanceof GuavaConfiguration))
+        {
+            return false;
+        }
+
+        GuavaConfiguration<?, ?> other = (GuavaConfiguration<?, ?>) object;
+
+        return Objects.equals(weigherFactory, other.weigherFactory)
+               && offHeapCapacity == other.offHeapCapacity
+               && admissionFilterEnabled == other.admissionFilterEnabled
+               && costAwareEvictionEnabled == other.costAwareEvictionEnabled
+               && pinnedQuota == other.pinnedQuota;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(super.hashCode(), weigherFactory, offHeapCapacity, admissionFilterEnabled,
+                            costAwareEvictionEnabled, pinnedQuota);
+    }
+}
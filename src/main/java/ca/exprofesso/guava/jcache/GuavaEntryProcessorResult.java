@@ -21,16 +21,29 @@ public class GuavaEntryProcessorResult<T>
     implements javax.cache.processor.EntryProcessorResult<T>
 {
     private final T t;
+    private final EntryProcessorException exception;
 
     public GuavaEntryProcessorResult(T t)
     {
         this.t = t;
+        this.exception = null;
+    }
+
+    public GuavaEntryProcessorResult(EntryProcessorException exception)
+    {
+        this.t = null;
+        this.exception = exception;
     }
 
     @Override
     public T get()
         throws EntryProcessorException
     {
+        if (exception != null)
+        {
+            throw exception;
+        }
+
         return t;
     }
 }
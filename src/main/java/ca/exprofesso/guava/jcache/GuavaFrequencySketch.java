@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free count-min sketch of the access frequency of keys, with 4 bit counters, used by the TinyLFU admission
+ * filter of {@link GuavaCache}.
+ * <p>
+ * The table has one 64 bit word per expected entry (rounded up to a power of two), each holding sixteen counters. A key
+ * is counted in four of them, in four different words, and its frequency is the smallest of the four. Counters
+ * saturate at 15, and all of them are halved once the number of increments reaches ten times the expected entries, so
+ * that the sketch follows the workload as it changes.
+ */
+public class GuavaFrequencySketch
+{
+    private static final long[] SEEDS =
+        { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+
+    private final int sampleSize;
+    private final AtomicInteger size = new AtomicInteger();
+
+    public GuavaFrequencySketch(long expectedEntries)
+    {
+        int length = (int) Math.min(1 << 30, Math.max(16, Long.highestOneBit(Math.max(1, expectedEntries - 1)) << 1));
+
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE / 2, 10L * Math.max(1, expectedEntries));
+    }
+
+    public void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++)
+        {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && size.incrementAndGet() == sampleSize)
+        {
+            reset();
+        }
+    }
+
+    public int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; i++)
+        {
+            int shift = (start + i) << 2;
+
+            frequency = Math.min(frequency, (int) ((table.get(indexOf(hash, i)) >>> shift) & 0xfL));
+        }
+
+        return frequency;
+    }
+
+    // only the thread that reached the sample size halves the counters, increments that race with it may be lost
+    private void reset()
+    {
+        for (int i = 0; i < table.length(); i++)
+        {
+            long value;
+
+            do
+            {
+                value = table.get(i);
+            }
+            while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+        }
+
+        size.addAndGet(-(sampleSize / 2));
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+        int shift = counter << 2;
+        long mask = 0xfL << shift;
+
+        while (true)
+        {
+            long value = table.get(index);
+
+            if ((value & mask) == mask)
+            {
+                return false;
+            }
+
+            if (table.compareAndSet(index, value, value + (1L << shift)))
+            {
+                return true;
+            }
+        }
+    }
+
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+
+        h += (h >>> 32);
+
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int h)
+    {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+
+        return (h >>> 16) ^ h;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Lock-free latency histogram with a fixed memory footprint.
+ * <p>
+ * Values (in nanoseconds) are counted in log-linear buckets: every power of two is split in 16 linear sub-buckets, so
+ * any recorded value is reported within 1/16 (6.25%) of its true value. Recording is a single atomic increment and
+ * never allocates.
+ */
+public class GuavaLatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(indexOf(value));
+
+        long current = max.get();
+
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            count += counts.get(i);
+        }
+
+        return count;
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public long getPercentile(double percentile)
+    {
+        return snapshotCounts().getPercentile(percentile);
+    }
+
+    public Snapshot snapshot()
+    {
+        Counts c = snapshotCounts();
+
+        return new Snapshot(c.total,
+                            c.getPercentile(50),
+                            c.getPercentile(90),
+                            c.getPercentile(99),
+                            c.getPercentile(99.9),
+                            c.max);
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+
+        max.set(0);
+    }
+
+    private Counts snapshotCounts()
+    {
+        long[] values = new long[BUCKETS];
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            values[i] = counts.get(i);
+            total += values[i];
+        }
+
+        return new Counts(values, total, max.get());
+    }
+
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+
+        return lowest + ((1L << shift) - 1);
+    }
+
+    private static final class Counts
+    {
+        private final long[] values;
+        private final long total;
+        private final long max;
+
+        private Counts(long[] values, long total, long max)
+        {
+            this.values = values;
+            this.total = total;
+            this.max = max;
+        }
+
+        private long getPercentile(double percentile)
+        {
+            if (total == 0)
+            {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil((percentile / 100) * total));
+            long seen = 0;
+
+            for (int i = 0; i < values.length; i++)
+            {
+                seen += values[i];
+
+                if (seen >= rank)
+                {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    /**
+     * Percentiles of a histogram, in microseconds.
+     */
+    public static final class Snapshot
+    {
+        private final long count;
+        private final float p50;
+        private final float p90;
+        private final float p99;
+        private final float p999;
+        private final float max;
+
+        private Snapshot(long count, long p50, long p90, long p99, long p999, long max)
+        {
+            this.count = count;
+            this.p50 = p50 / 1000F;
+            this.p90 = p90 / 1000F;
+            this.p99 = p99 / 1000F;
+            this.p999 = p999 / 1000F;
+            this.max = max / 1000F;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public float getP50()
+        {
+            return p50;
+        }
+
+        public float getP90()
+        {
+            return p90;
+        }
+
+        public float getP99()
+        {
+            return p99;
+        }
+
+        public float getP999()
+        {
+            return p999;
+        }
+
+        public float getMax()
+        {
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                              .add("count", count)
+                              .add("p50", p50)
+                              .add("p90", p90)
+                              .add("p99", p99)
+                              .add("p999", p999)
+                              .add("max", max)
+                              .toString();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A ticker that only moves when told to, for deterministic expiration.
+ */
+public class GuavaManualTicker
+    extends Ticker
+{
+    private final AtomicLong time = new AtomicLong();
+
+    public void advance(long duration, TimeUnit unit)
+    {
+        time.addAndGet(unit.toNanos(duration));
+    }
+
+    @Override
+    public long read()
+    {
+        return time.get();
+    }
+}
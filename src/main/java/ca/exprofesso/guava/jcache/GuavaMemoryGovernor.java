@@ -0,0 +1,424 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.cache.Cache;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks the caches of a manager when the old generation crosses a high watermark, and lets them grow back once it
+ * falls below a low watermark.
+ * <p>
+ * The governor is woken up by the usage threshold notifications of the tenured memory pools, then checks the heap
+ * every second on the maintenance thread of the manager until all the caches are back to their full size. Each
+ * shrink (at most one per garbage collection) takes a share of the entries off the caches in proportion to their
+ * size and to their miss rate, so that large caches with little value give back the most. A cache without statistics
+ * is taken to miss as often as the others on average, and each cache sheds its least recently read entries first.
+ */
+public class GuavaMemoryGovernor
+    implements NotificationListener
+{
+    // fraction of all the entries given back on each shrink, and at most by a single cache
+    private static final double SHRINK_RATIO = 0.25;
+    private static final double MAXIMUM_SHRINK_RATIO = 0.5;
+
+    private static final long CHECK_INTERVAL = 1000L;
+
+    private final GuavaCacheManager cacheManager;
+
+    private final double highWatermark;
+    private final double lowWatermark;
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private final List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+
+    // the thresholds set by this governor, and the ones they replaced, restored on close
+    private final Map<MemoryPoolMXBean, Long> thresholds = new HashMap<>();
+    private final Map<MemoryPoolMXBean, Long> previousThresholds = new HashMap<>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // guarded by this: total weight of the shrunk caches before their first shrink, their current capacity, and
+    // their statistics as of the previous shrink
+    private final Map<GuavaCache<?, ?>, Long> shrunk = new HashMap<>();
+    private final Map<GuavaCache<?, ?>, Long> capacities = new HashMap<>();
+    private final Map<GuavaCache<?, ?>, GuavaCacheStatistics.Snapshot> baselines = new HashMap<>();
+
+    private long collections = -1;
+
+    public GuavaMemoryGovernor(GuavaCacheManager cacheManager, double highWatermark, double lowWatermark)
+    {
+        this.cacheManager = cacheManager;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            // only the tenured pools support usage thresholds
+            if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || pool.getUsage().getMax() <= 0)
+            {
+                continue;
+            }
+
+            long threshold = (long) (pool.getUsage().getMax() * highWatermark);
+
+            // thresholds are shared by the whole JVM, a lower one set by another manager is kept
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                long current = pool.getCollectionUsageThreshold();
+
+                if (current == 0 || current > threshold)
+                {
+                    pool.setCollectionUsageThreshold(threshold);
+
+                    thresholds.put(pool, threshold);
+                    previousThresholds.put(pool, current);
+                }
+            }
+            else
+            {
+                long current = pool.getUsageThreshold();
+
+                if (current == 0 || current > threshold)
+                {
+                    pool.setUsageThreshold(threshold);
+
+                    thresholds.put(pool, threshold);
+                    previousThresholds.put(pool, current);
+                }
+            }
+
+            pools.add(pool);
+        }
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            for (MemoryPoolMXBean pool : pools)
+            {
+                if (Arrays.asList(collector.getMemoryPoolNames()).contains(pool.getName()))
+                {
+                    collectors.add(collector);
+                    break;
+                }
+            }
+        }
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+    }
+
+    public double getHighWatermark()
+    {
+        return highWatermark;
+    }
+
+    public double getLowWatermark()
+    {
+        return lowWatermark;
+    }
+
+    /**
+     * The highest occupancy of the tenured pools, as of their last collection when available.
+     */
+    public double getOccupancy()
+    {
+        double occupancy = 0;
+
+        for (MemoryPoolMXBean pool : pools)
+        {
+            MemoryUsage usage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+
+            if (usage == null)
+            {
+                usage = pool.getUsage();
+            }
+
+            occupancy = Math.max(occupancy, (double) usage.getUsed() / pool.getUsage().getMax());
+        }
+
+        return occupancy;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback)
+    {
+        String type = notification.getType();
+
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+            || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type))
+        {
+            schedule(0);
+        }
+    }
+
+    public void close()
+    {
+        try
+        {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        }
+        catch (ListenerNotFoundException e)
+        {
+            // no-op
+        }
+
+        // unless lowered since by another manager, which then keeps its own
+        for (Map.Entry<MemoryPoolMXBean, Long> entry : thresholds.entrySet())
+        {
+            MemoryPoolMXBean pool = entry.getKey();
+
+            long previous = previousThresholds.get(pool);
+
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                if (pool.getCollectionUsageThreshold() == entry.getValue())
+                {
+                    pool.setCollectionUsageThreshold(previous);
+                }
+            }
+            else if (pool.getUsageThreshold() == entry.getValue())
+            {
+                pool.setUsageThreshold(previous);
+            }
+        }
+
+        thresholds.clear();
+    }
+
+    /**
+     * Shrinks the caches above the high watermark (once per collection), grows them back below the low watermark.
+     *
+     * @return whether the caches must still be watched
+     */
+    protected synchronized boolean update(double occupancy, long collections)
+    {
+        if (occupancy >= highWatermark)
+        {
+            if (collections != this.collections)
+            {
+                this.collections = collections;
+
+                shrink();
+            }
+        }
+        else if (occupancy < lowWatermark)
+        {
+            grow();
+        }
+
+        return !shrunk.isEmpty();
+    }
+
+    private void schedule(long delay)
+    {
+        if (!scheduled.compareAndSet(false, true) && delay == 0)
+        {
+            return;
+        }
+
+        try
+        {
+            cacheManager.getMaintenanceExecutorService().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    check();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the manager is closing
+        }
+    }
+
+    private void check()
+    {
+        if (cacheManager.isClosed())
+        {
+            return;
+        }
+
+        double occupancy = getOccupancy();
+
+        if (update(occupancy, getCollectionCount()) || occupancy >= lowWatermark)
+        {
+            schedule(CHECK_INTERVAL);
+        }
+        else
+        {
+            scheduled.set(false);
+        }
+    }
+
+    private long getCollectionCount()
+    {
+        long count = 0;
+
+        for (GarbageCollectorMXBean collector : collectors)
+        {
+            count += collector.getCollectionCount();
+        }
+
+        return count;
+    }
+
+    // guarded by this
+    private void shrink()
+    {
+        List<GuavaCache<?, ?>> caches = new ArrayList<>();
+        List<Double> missRates = new ArrayList<>();
+
+        long totalSize = 0;
+        long knownSize = 0;
+        double knownMisses = 0;
+
+        baselines.keySet().removeIf(GuavaCache::isClosed);
+
+        for (Cache<?, ?> c : cacheManager.getCaches())
+        {
+            GuavaCache<?, ?> cache = c.unwrap(GuavaCache.class);
+
+            long size = cache.size();
+
+            if (size == 0)
+            {
+                continue;
+            }
+
+            double missRate = 1.0 - getHitRate(cache);
+
+            caches.add(cache);
+            missRates.add(missRate);
+
+            totalSize += size;
+
+            if (!Double.isNaN(missRate))
+            {
+                knownSize += size;
+                knownMisses += size * missRate;
+            }
+        }
+
+        // the caches without statistics are given the average miss rate of the others, so that they are neither
+        // spared nor singled out, and all are shrunk by size alone when none keeps statistics
+        double neutralMissRate = (knownSize > 0) ? knownMisses / knownSize : 1.0;
+
+        List<Double> costs = new ArrayList<>();
+
+        double totalCost = 0;
+
+        for (int i = 0; i < caches.size(); i++)
+        {
+            double missRate = Double.isNaN(missRates.get(i)) ? neutralMissRate : missRates.get(i);
+
+            // the entry count is the unit shared by all the caches, whatever their weigher
+            double cost = caches.get(i).size() * missRate;
+
+            costs.add(cost);
+
+            totalCost += cost;
+        }
+
+        for (int i = 0; i < caches.size(); i++)
+        {
+            GuavaCache<?, ?> cache = caches.get(i);
+
+            // caches that all hit are shrunk by size alone
+            double share = (totalCost > 0) ? costs.get(i) / totalCost : (double) cache.size() / totalSize;
+            double ratio = Math.min(MAXIMUM_SHRINK_RATIO, (SHRINK_RATIO * totalSize * share) / cache.size());
+
+            long weight = cache.getTotalWeight();
+
+            if (!shrunk.containsKey(cache))
+            {
+                shrunk.put(cache, weight);
+                capacities.put(cache, Long.MAX_VALUE);
+            }
+
+            long capacity = (long) (Math.min(weight, capacities.get(cache)) * (1.0 - ratio));
+
+            capacities.put(cache, capacity);
+
+            cache.setCapacity(capacity);
+        }
+    }
+
+    // guarded by this
+    private void grow()
+    {
+        for (Map.Entry<GuavaCache<?, ?>, Long> entry : new ArrayList<>(shrunk.entrySet()))
+        {
+            GuavaCache<?, ?> cache = entry.getKey();
+
+            long capacity = capacities.get(cache);
+
+            if (cache.isClosed() || capacity >= entry.getValue())
+            {
+                cache.setCapacity(Long.MAX_VALUE);
+
+                shrunk.remove(cache);
+                capacities.remove(cache);
+                baselines.remove(cache);
+            }
+            else
+            {
+                capacity = Math.max(capacity * 2, 1);
+
+                capacities.put(cache, capacity);
+
+                cache.setCapacity(capacity);
+            }
+        }
+    }
+
+    // guarded by this: hit rate since the previous shrink, unknown (NaN) when the cache keeps no statistics
+    private double getHitRate(GuavaCache<?, ?> cache)
+    {
+        if (!cache.isStatisticsEnabled())
+        {
+            baselines.remove(cache);
+
+            return Double.NaN;
+        }
+
+        GuavaCacheStatistics.Snapshot snapshot = cache.getStatistics().snapshot();
+        GuavaCacheStatistics.Snapshot baseline = baselines.put(cache, snapshot);
+
+        GuavaCacheStatistics.Snapshot delta =
+            snapshot.minus((baseline != null) ? baseline : GuavaCacheStatistics.Snapshot.EMPTY);
+
+        return (delta.getGets() > 0) ? (double) delta.getHits() / delta.getGets() : 0;
+    }
+}
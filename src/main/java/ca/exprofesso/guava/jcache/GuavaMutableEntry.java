@@ -16,6 +16,8 @@
  */
 package ca.exprofesso.guava.jcache;
 
+import javax.cache.integration.CacheLoaderException;
+
 public class GuavaMutableEntry<K, V>
     implements javax.cache.processor.MutableEntry<K, V>
 {
@@ -25,12 +27,22 @@ public class GuavaMutableEntry<K, V>
 
     private volatile boolean removed;
     private volatile boolean updated;
+    private volatile boolean loaded;
+
+    // loads through the cache, so that they are recorded like any other
+    private volatile GuavaCacheLoader<K, V> cacheLoader;
 
     public GuavaMutableEntry(K key, V value, boolean exists)
+    {
+        this(key, value, exists, null);
+    }
+
+    public GuavaMutableEntry(K key, V value, boolean exists, GuavaCacheLoader<K, V> cacheLoader)
     {
         this.key = key;
         this.value = value;
         this.exists = exists;
+        this.cacheLoader = cacheLoader;
     }
 
     @Override
@@ -65,6 +77,29 @@ public class GuavaMutableEntry<K, V>
     @Override
     public V getValue()
     {
+        if (!exists && !removed && cacheLoader != null)
+        {
+            // read-through is only attempted once, and only if the processor asks for the value
+            GuavaCacheLoader<K, V> loader = cacheLoader;
+
+            cacheLoader = null;
+
+            try
+            {
+                value = loader.load(key);
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new CacheLoaderException(e);
+            }
+
+            exists = loaded = (value != null);
+        }
+
         return value;
     }
 
@@ -88,4 +123,9 @@ public class GuavaMutableEntry<K, V>
     {
         return updated;
     }
+
+    protected boolean isLoaded()
+    {
+        return loaded;
+    }
 }
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serialized values kept outside of the Java heap, in direct {@link ByteBuffer} slabs.
+ * <p>
+ * Only the keys and small handles ({@link Record}) stay on the heap. The slabs are allocated on demand up to the
+ * capacity and each one is cut into chunks of a single size class (powers of two from {@value #MINIMUM_CHUNK_SIZE}
+ * bytes to the size of a slab), until all its chunks are free again and it goes back to a pool shared by all the
+ * classes. A record takes the smallest chunk that fits; when its size class has no free chunk and no slab can be
+ * taken from the pool or added, the oldest record of that class is evicted to make room, or if the class has none,
+ * every record of the least used slab of another class. Lookups only go through a {@link ConcurrentHashMap}, reads
+ * and writes of the slabs are serialized on the store.
+ */
+public class GuavaOffHeapStore<K>
+{
+    public static final int MINIMUM_CHUNK_SIZE = 64;
+    public static final int MAXIMUM_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private final long capacity;
+    private final int slabSize;
+    private final int maximumSlabs;
+
+    private final ConcurrentMap<K, Record<K>> index = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final List<Slab<K>> slabs = new ArrayList<>();
+    // the slabs whose chunks are all free, by index
+    private final Deque<Integer> freeSlabs = new ArrayDeque<>();
+    private final SizeClass<K>[] sizeClasses;
+    private long usedBytes;
+
+    public GuavaOffHeapStore(long capacity)
+    {
+        if (capacity < MINIMUM_CHUNK_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid off-heap capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.slabSize = (int) Math.min(MAXIMUM_SLAB_SIZE, Long.highestOneBit(capacity));
+        this.maximumSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+
+        int classes = Integer.numberOfTrailingZeros(slabSize) - Integer.numberOfTrailingZeros(MINIMUM_CHUNK_SIZE) + 1;
+
+        this.sizeClasses = new SizeClass[classes];
+
+        for (int i = 0; i < classes; i++)
+        {
+            sizeClasses[i] = new SizeClass<>(MINIMUM_CHUNK_SIZE << i);
+        }
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getMaximumLength()
+    {
+        return slabSize;
+    }
+
+    public Record<K> get(K key)
+    {
+        return index.get(key);
+    }
+
+    public Set<K> keySet()
+    {
+        return index.keySet();
+    }
+
+    public boolean isEmpty()
+    {
+        return index.isEmpty();
+    }
+
+    public long size()
+    {
+        return index.size();
+    }
+
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+    public synchronized long getAllocatedBytes()
+    {
+        return (long) slabs.size() * slabSize;
+    }
+
+    /**
+     * Stores a copy of the bytes, replacing any previous record of the key.
+     *
+     * @return the number of records evicted to make room, or -1 if the bytes could not be stored
+     */
+    public synchronized int put(K key, byte[] bytes, long deadline)
+    {
+        if (bytes.length > slabSize)
+        {
+            return -1;
+        }
+
+        SizeClass<K> sizeClass = sizeClasses[sizeClassOf(bytes.length)];
+
+        int evictions = 0;
+
+        long address = allocate(sizeClass);
+
+        if (address < 0)
+        {
+            Iterator<Record<K>> oldest = sizeClass.records.values().iterator();
+
+            if (oldest.hasNext())
+            {
+                Record<K> victim = oldest.next();
+
+                index.remove(victim.key, victim);
+                free(victim);
+
+                evictions++;
+            }
+            else
+            {
+                // all the slabs are taken by other size classes
+                evictions += evictSlab();
+            }
+
+            address = allocate(sizeClass);
+        }
+
+        if (address < 0)
+        {
+            return -1;
+        }
+
+        slabs.get((int) (address >>> 32)).used++;
+
+        ByteBuffer slab = slabs.get((int) (address >>> 32)).buffer.duplicate();
+
+        slab.position((int) address);
+        slab.put(bytes);
+
+        Record<K> record = new Record<>(key, address, bytes.length, sizeClass, deadline);
+
+        sizeClass.records.put(key, record);
+        usedBytes += bytes.length;
+
+        Record<K> previous = index.put(key, record);
+
+        if (previous != null)
+        {
+            free(previous);
+        }
+
+        return evictions;
+    }
+
+    /**
+     * @return a copy of the bytes of the record, or null if it was removed in the meantime
+     */
+    public synchronized byte[] read(Record<K> record)
+    {
+        if (record.freed)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[record.length];
+
+        ByteBuffer slab = slabs.get((int) (record.address >>> 32)).buffer.duplicate();
+
+        slab.position((int) record.address);
+        slab.get(bytes);
+
+        return bytes;
+    }
+
+    public synchronized boolean remove(K key, Record<K> record)
+    {
+        if (!index.remove(key, record))
+        {
+            return false;
+        }
+
+        free(record);
+
+        return true;
+    }
+
+    public synchronized void clear()
+    {
+        for (Record<K> record : index.values())
+        {
+            free(record);
+        }
+
+        index.clear();
+    }
+
+    // the slabs themselves are only released with the store, by the garbage collector
+    private void free(Record<K> record)
+    {
+        if (!record.freed)
+        {
+            record.freed = true;
+
+            record.sizeClass.records.remove(record.key, record);
+
+            int index = (int) (record.address >>> 32);
+
+            Slab<K> slab = slabs.get(index);
+
+            if (--slab.used == 0)
+            {
+                // back to the pool, for any size class
+                slab.owner.releaseSlab(index);
+                slab.owner = null;
+
+                freeSlabs.push(index);
+            }
+            else
+            {
+                record.sizeClass.release(record.address);
+            }
+
+            usedBytes -= record.length;
+        }
+    }
+
+    private long allocate(SizeClass<K> sizeClass)
+    {
+        long address = sizeClass.allocate();
+
+        if (address >= 0)
+        {
+            return address;
+        }
+
+        int index;
+
+        if (!freeSlabs.isEmpty())
+        {
+            index = freeSlabs.pop();
+        }
+        else if (slabs.size() < maximumSlabs)
+        {
+            index = slabs.size();
+
+            slabs.add(new Slab<K>(ByteBuffer.allocateDirect(slabSize)));
+        }
+        else
+        {
+            return -1;
+        }
+
+        slabs.get(index).owner = sizeClass;
+
+        for (int offset = slabSize - sizeClass.chunkSize; offset >= 0; offset -= sizeClass.chunkSize)
+        {
+            sizeClass.release(((long) index << 32) | offset);
+        }
+
+        return sizeClass.allocate();
+    }
+
+    // evicts every record of the slab with the fewest records, which then goes back to the pool
+    private int evictSlab()
+    {
+        int least = -1;
+
+        for (int i = 0; i < slabs.size(); i++)
+        {
+            Slab<K> slab = slabs.get(i);
+
+            if (slab.owner != null && (least < 0 || slab.used < slabs.get(least).used))
+            {
+                least = i;
+            }
+        }
+
+        if (least < 0)
+        {
+            return 0;
+        }
+
+        List<Record<K>> victims = new ArrayList<>();
+
+        for (Record<K> record : slabs.get(least).owner.records.values())
+        {
+            if ((int) (record.address >>> 32) == least)
+            {
+                victims.add(record);
+            }
+        }
+
+        for (Record<K> victim : victims)
+        {
+            index.remove(victim.key, victim);
+            free(victim);
+        }
+
+        return victims.size();
+    }
+
+    private static int sizeClassOf(int length)
+    {
+        if (length <= MINIMUM_CHUNK_SIZE)
+        {
+            return 0;
+        }
+
+        return (32 - Integer.numberOfLeadingZeros(length - 1)) - Integer.numberOfTrailingZeros(MINIMUM_CHUNK_SIZE);
+    }
+
+    /**
+     * @return the serialized form of the value, or null if it is not serializable
+     */
+    public static byte[] serialize(Object value)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(value);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static Object deserialize(byte[] bytes, final ClassLoader classLoader)
+        throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), classLoader))
+        {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * The on-heap handle of a value stored off-heap.
+     */
+    public static final class Record<K>
+    {
+        private final K key;
+        private final long address;
+        private final int length;
+        private final SizeClass<K> sizeClass;
+        private final long deadline;
+
+        // guarded by the store
+        private boolean freed;
+
+        private Record(K key, long address, int length, SizeClass<K> sizeClass, long deadline)
+        {
+            this.key = key;
+            this.address = address;
+            this.length = length;
+            this.sizeClass = sizeClass;
+            this.deadline = deadline;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        public boolean isExpired(long now)
+        {
+            return (deadline != GuavaTimingWheel.ETERNAL && now - deadline >= 0);
+        }
+    }
+
+    private static final class Slab<K>
+    {
+        private final ByteBuffer buffer;
+
+        // null while in the pool
+        private SizeClass<K> owner;
+        private int used;
+
+        public Slab(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class SizeClass<K>
+    {
+        private final int chunkSize;
+
+        // stack of the free chunk addresses, slab index in the high half and offset in the low half
+        private long[] free = new long[16];
+        private int freeCount;
+
+        // in insertion order, the first one is the next to be evicted
+        private final LinkedHashMap<K, Record<K>> records = new LinkedHashMap<>();
+
+        public SizeClass(int chunkSize)
+        {
+            this.chunkSize = chunkSize;
+        }
+
+        public long allocate()
+        {
+            return (freeCount == 0) ? -1 : free[--freeCount];
+        }
+
+        public void release(long address)
+        {
+            if (freeCount == free.length)
+            {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+
+            free[freeCount++] = address;
+        }
+
+        // drops the free chunks of a slab that goes back to the pool
+        public void releaseSlab(int slab)
+        {
+            int count = 0;
+
+            for (int i = 0; i < freeCount; i++)
+            {
+                if ((int) (free[i] >>> 32) != slab)
+                {
+                    free[count++] = free[i];
+                }
+            }
+
+            freeCount = count;
+        }
+    }
+
+    private static final class ClassLoaderObjectInputStream
+        extends ObjectInputStream
+    {
+        private final ClassLoader classLoader;
+
+        public ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader)
+            throws IOException
+        {
+            super(in);
+
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description)
+            throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName(description.getName(), false, classLoader);
+            }
+            catch (ClassNotFoundException e)
+            {
+                return super.resolveClass(description);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.cache.configuration.Factory;
+
+import com.google.common.cache.Weigher;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Estimates the heap footprint of an entry in bytes, value by value: exact for arrays of primitives and
+ * {@link String}, extrapolated from the first elements for collections, maps and arrays of objects, the serialized
+ * size for other {@link Serializable} objects and a fixed header size otherwise.
+ * <p>
+ * A value is weighed once, when it is stored, but serializing it then is costly: a dedicated weigher should be
+ * preferred for values that are neither arrays, strings nor collections.
+ */
+public class GuavaSizeEstimator
+    implements Weigher<Object, Object>
+{
+    public static final GuavaSizeEstimator INSTANCE = new GuavaSizeEstimator();
+
+    // header and references of a Guava entry, and the charge recorded for it by GuavaCacheWeigher
+    private static final int ENTRY_SIZE = 112;
+    private static final int OBJECT_SIZE = 16;
+    private static final int STRING_SIZE = 40;
+    private static final int REFERENCE_SIZE = 8;
+    // a node of a hash map or a linked list
+    private static final int NODE_SIZE = 32;
+
+    // elements weighed to extrapolate the size of a collection, and nesting past which elements are only counted
+    private static final int SAMPLE_SIZE = 8;
+    private static final int MAXIMUM_DEPTH = 4;
+
+    @Override
+    public int weigh(Object key, Object value)
+    {
+        return (int) Math.min(Integer.MAX_VALUE, ENTRY_SIZE + estimate(key) + estimate(value));
+    }
+
+    public static long estimate(Object object)
+    {
+        return estimate(object, 0);
+    }
+
+    private static long estimate(Object object, int depth)
+    {
+        if (object == null)
+        {
+            return 0;
+        }
+        else if (object instanceof byte[])
+        {
+            return OBJECT_SIZE + ((byte[]) object).length;
+        }
+        else if (object instanceof String)
+        {
+            return STRING_SIZE + (2L * ((String) object).length());
+        }
+        else if (object instanceof Number || object instanceof Boolean || object instanceof Character)
+        {
+            return OBJECT_SIZE;
+        }
+        else if (object.getClass().isArray())
+        {
+            Class<?> componentType = object.getClass().getComponentType();
+
+            int length = Array.getLength(object);
+
+            if (componentType.isPrimitive())
+            {
+                return OBJECT_SIZE + (long) length * primitiveSize(componentType);
+            }
+
+            return OBJECT_SIZE + (long) length * REFERENCE_SIZE
+                   + extrapolate(Arrays.asList((Object[]) object), length, depth);
+        }
+        else if (object instanceof Collection)
+        {
+            Collection<?> collection = (Collection<?>) object;
+
+            int size = collection.size();
+
+            return OBJECT_SIZE + (long) size * NODE_SIZE + extrapolate(collection, size, depth);
+        }
+        else if (object instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) object;
+
+            int size = map.size();
+
+            return OBJECT_SIZE + (long) size * NODE_SIZE
+                   + extrapolate(map.keySet(), size, depth) + extrapolate(map.values(), size, depth);
+        }
+        else if (object instanceof Serializable)
+        {
+            return OBJECT_SIZE + serializedSize(object);
+        }
+
+        return OBJECT_SIZE;
+    }
+
+    // the first elements stand for the others, a copied collection may change meanwhile
+    private static long extrapolate(Iterable<?> elements, int size, int depth)
+    {
+        if (size == 0 || depth >= MAXIMUM_DEPTH)
+        {
+            return (long) size * OBJECT_SIZE;
+        }
+
+        long sampled = 0;
+        int count = 0;
+
+        try
+        {
+            for (Object element : elements)
+            {
+                if (count == SAMPLE_SIZE)
+                {
+                    break;
+                }
+
+                sampled += estimate(element, depth + 1);
+                count++;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // a collection changed concurrently, the elements seen so far are enough
+        }
+
+        return (count > 0) ? (sampled * size) / count : (long) size * OBJECT_SIZE;
+    }
+
+    private static int primitiveSize(Class<?> type)
+    {
+        if (type == long.class || type == double.class)
+        {
+            return 8;
+        }
+        else if (type == int.class || type == float.class)
+        {
+            return 4;
+        }
+        else if (type == short.class || type == char.class)
+        {
+            return 2;
+        }
+
+        return 1;
+    }
+
+    private static long serializedSize(Object object)
+    {
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+
+        try (ObjectOutputStream os = new ObjectOutputStream(counter))
+        {
+            os.writeObject(object);
+        }
+        catch (IOException e)
+        {
+            return 0;
+        }
+
+        return counter.getCount();
+    }
+
+    public static <K, V> Factory<Weigher<? super K, ? super V>> factory()
+    {
+        return new Factory<Weigher<? super K, ? super V>>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Weigher<? super K, ? super V> create()
+            {
+                return INSTANCE;
+            }
+        };
+    }
+}
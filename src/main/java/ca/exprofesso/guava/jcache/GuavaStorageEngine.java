@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Creates the structure that stores the entries of a {@link GuavaCache}, chosen per cache through the
+ * {@link GuavaCacheManager#STORAGE_ENGINE} properties.
+ * <p>
+ * An engine returns a Guava {@link Cache}, or a {@link LoadingCache} when the settings have a loader. The cache uses
+ * its {@code asMap()} view for the atomic operations and the iteration, so that view must support them all, and every
+ * removal or replaced value must be reported to the removal listener of the settings, as Guava does.
+ */
+public interface GuavaStorageEngine
+{
+    public abstract <K, V> Cache<K, V> create(GuavaStorageSettings<K, V> settings);
+
+    /**
+     * Whether the engine honors the expire after write and after access settings, otherwise {@link GuavaCache} expires
+     * the entries itself.
+     */
+    public abstract boolean isExpiring();
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import javax.cache.expiry.Duration;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+
+/**
+ * What a {@link GuavaStorageEngine} is given to create the storage of a cache.
+ */
+public class GuavaStorageSettings<K, V>
+{
+    private final String specification;
+    private final Ticker ticker;
+    private final Weigher<? super K, ? super V> weigher;
+    private final Duration expireAfterWrite;
+    private final Duration expireAfterAccess;
+    private final RemovalListener<K, V> removalListener;
+    private final CacheLoader<K, V> loader;
+
+    public GuavaStorageSettings(String specification, Ticker ticker, Weigher<? super K, ? super V> weigher,
+                                Duration expireAfterWrite, Duration expireAfterAccess,
+                                RemovalListener<K, V> removalListener, CacheLoader<K, V> loader)
+    {
+        this.specification = specification;
+        this.ticker = ticker;
+        this.weigher = weigher;
+        this.expireAfterWrite = expireAfterWrite;
+        this.expireAfterAccess = expireAfterAccess;
+        this.removalListener = removalListener;
+        this.loader = loader;
+    }
+
+    /**
+     * The cache manager properties, in the syntax of {@link com.google.common.cache.CacheBuilderSpec}.
+     */
+    public String getSpecification()
+    {
+        return specification;
+    }
+
+    public Ticker getTicker()
+    {
+        return ticker;
+    }
+
+    /**
+     * Null unless the cache is bounded by weight.
+     */
+    public Weigher<? super K, ? super V> getWeigher()
+    {
+        return weigher;
+    }
+
+    /**
+     * Null unless the entries expire after their last write.
+     */
+    public Duration getExpireAfterWrite()
+    {
+        return expireAfterWrite;
+    }
+
+    /**
+     * Null unless the entries expire after their last access.
+     */
+    public Duration getExpireAfterAccess()
+    {
+        return expireAfterAccess;
+    }
+
+    public RemovalListener<K, V> getRemovalListener()
+    {
+        return removalListener;
+    }
+
+    /**
+     * Null unless the cache is read through.
+     */
+    public CacheLoader<K, V> getLoader()
+    {
+        return loader;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel driving per-entry expiration.
+ * <p>
+ * Five levels of 64 buckets, from ~1ms to ~4.9h per bucket. Scheduling and cancelling are O(1); advancing only visits
+ * the buckets whose time has come, cascading timers that are not due yet to a finer level. Deadlines may be extended
+ * without touching the wheel: a timer found in a bucket before its deadline is simply scheduled again.
+ * <p>
+ * Deadlines are in nanoseconds of the cache ticker. The wheel has a single lock, which writers never wait for:
+ * scheduling and cancelling are buffered in striped lock-free queues and applied by whichever thread holds the wheel,
+ * the writer itself when it is free. A timer only records that it must be placed again, and its deadline and whether
+ * it was cancelled decide where, so the order in which the buffers are drained does not matter. Advancing is meant to
+ * be attempted often, it returns without locking until the finest level moves on to its next bucket, and gives way if
+ * another thread is already advancing.
+ */
+public class GuavaTimingWheel<K, V>
+{
+    public static final long ETERNAL = Long.MAX_VALUE;
+
+    private static final int[] SHIFTS = { 20, 26, 32, 38, 44 };
+    private static final int BUCKETS = 64;
+    private static final int MASK = BUCKETS - 1;
+
+    private final Timer<K, V>[][] wheel;
+
+    private final long origin;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // timers to place again, by thread
+    private final Queue<Timer<K, V>>[] buffers;
+
+    // written under the lock
+    private volatile long time;
+
+    @SuppressWarnings("unchecked")
+    public GuavaTimingWheel(long now)
+    {
+        this.origin = now;
+
+        this.wheel = new Timer[SHIFTS.length][BUCKETS];
+
+        for (Timer<K, V>[] buckets : wheel)
+        {
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                buckets[i] = new Timer<>(null, null, ETERNAL);
+                buckets[i].prev = buckets[i].next = buckets[i];
+            }
+        }
+
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+        this.buffers = new Queue[stripes];
+
+        for (int i = 0; i < stripes; i++)
+        {
+            buffers[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public void schedule(Timer<K, V> timer)
+    {
+        buffer(timer);
+    }
+
+    /**
+     * A cancelled timer is never scheduled again.
+     */
+    public void cancel(Timer<K, V> timer)
+    {
+        timer.cancelled = true;
+
+        buffer(timer);
+    }
+
+    /**
+     * Whether a timer may be due at {@code now}, read without locking.
+     */
+    public boolean isTicking(long now)
+    {
+        return ((now - origin) >>> SHIFTS[0]) != (time >>> SHIFTS[0]);
+    }
+
+    /**
+     * Moves the wheel to {@code now} and collects the timers that are due.
+     */
+    public void advance(long now, List<Timer<K, V>> expired)
+    {
+        lock.lock();
+
+        try
+        {
+            drain();
+            doAdvance(now, expired);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #advance}, unless another thread holds the wheel.
+     *
+     * @return false if the wheel was not advanced
+     */
+    public boolean tryAdvance(long now, List<Timer<K, V>> expired)
+    {
+        if (!lock.tryLock())
+        {
+            return false;
+        }
+
+        try
+        {
+            drain();
+            doAdvance(now, expired);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    private void buffer(Timer<K, V> timer)
+    {
+        // placed right away while the wheel is free, buffered for the thread holding it otherwise
+        if (lock.tryLock())
+        {
+            try
+            {
+                place(timer);
+                drain();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            return;
+        }
+
+        buffers[(int) Thread.currentThread().getId() & (buffers.length - 1)].offer(timer);
+
+        // the holder may have drained before the offer, whoever gets the wheel next drains it
+        if (lock.tryLock())
+        {
+            try
+            {
+                drain();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drain()
+    {
+        for (Queue<Timer<K, V>> buffer : buffers)
+        {
+            Timer<K, V> timer;
+
+            while ((timer = buffer.poll()) != null)
+            {
+                place(timer);
+            }
+        }
+    }
+
+    private void place(Timer<K, V> timer)
+    {
+        if (timer.prev != null)
+        {
+            unlink(timer);
+        }
+
+        if (!timer.cancelled && timer.getDeadline() != ETERNAL)
+        {
+            link(timer);
+        }
+    }
+
+    private void doAdvance(long now, List<Timer<K, V>> expired)
+    {
+        long previous = time;
+        long current = now - origin;
+
+        if (current <= previous)
+        {
+            return;
+        }
+
+        time = current;
+
+        for (int level = 0; level < SHIFTS.length; level++)
+        {
+            long previousTick = previous >>> SHIFTS[level];
+            long currentTick = current >>> SHIFTS[level];
+
+            // coarser levels cannot have moved either
+            if (previousTick == currentTick)
+            {
+                break;
+            }
+
+            long ticks = Math.min(currentTick - previousTick, BUCKETS - 1);
+
+            for (long tick = currentTick - ticks; tick <= currentTick; tick++)
+            {
+                expire(wheel[level][(int) (tick & MASK)], now, expired);
+            }
+        }
+    }
+
+    private void expire(Timer<K, V> sentinel, long now, List<Timer<K, V>> expired)
+    {
+        Timer<K, V> timer = sentinel.next;
+
+        // detached first, as timers that are not due yet may be scheduled back in the same bucket
+        sentinel.prev = sentinel.next = sentinel;
+
+        while (timer != sentinel)
+        {
+            Timer<K, V> next = timer.next;
+
+            timer.prev = timer.next = null;
+
+            // cancelled while the wheel was held, its buffered cancellation has nothing left to unlink
+            if (timer.cancelled)
+            {
+                timer = next;
+
+                continue;
+            }
+
+            if (timer.getDeadline() - now <= 0)
+            {
+                expired.add(timer);
+            }
+            else if (timer.getDeadline() != ETERNAL)
+            {
+                link(timer);
+            }
+
+            timer = next;
+        }
+    }
+
+    private void link(Timer<K, V> timer)
+    {
+        long deadline = Math.max(timer.getDeadline() - origin, time);
+        long delta = deadline - time;
+
+        int level = 0;
+
+        while (level < (SHIFTS.length - 1) && delta >= (1L << SHIFTS[level + 1]))
+        {
+            level++;
+        }
+
+        if (level == (SHIFTS.length - 1))
+        {
+            // beyond the span of the wheel, cascades again when its bucket comes
+            deadline = Math.min(deadline, time + ((long) MASK << SHIFTS[level]));
+        }
+
+        Timer<K, V> sentinel = wheel[level][(int) ((deadline >>> SHIFTS[level]) & MASK)];
+
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    private void unlink(Timer<K, V> timer)
+    {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+    }
+
+    public static final class Timer<K, V>
+    {
+        private final K key;
+        private final V value;
+
+        private volatile long deadline;
+        private volatile boolean cancelled;
+
+        // guarded by the wheel
+        private Timer<K, V> prev;
+        private Timer<K, V> next;
+
+        public Timer(K key, V value, long deadline)
+        {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        public void setDeadline(long deadline)
+        {
+            this.deadline = deadline;
+        }
+
+        public boolean isExpired(long now)
+        {
+            return (deadline != ETERNAL) && (deadline - now <= 0);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.integration.CacheLoader;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaCacheAdmissionTest
+{
+    private static final int TEST_CACHE_SIZE = 100;
+    private static final int HOT_KEYS = 50;
+    private static final int SCAN_KEYS = 1000;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_CACHE_SIZE));
+        // a single segment, evicts in strict LRU order
+        properties.setProperty("concurrencyLevel", "1");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("admission"), getClass().getClassLoader(), properties);
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testScanResistance()
+    {
+        assertEquals(0, scan(createCache("lruCache", false)));
+
+        Cache<Integer, Integer> cache = createCache("tinyLfuCache", true);
+
+        // the first victim is a hot key, the scan is refused after that
+        assertTrue(scan(cache) >= HOT_KEYS - 1);
+        assertTrue(cache.unwrap(GuavaCache.class).getStatistics().getEvictions() >= SCAN_KEYS - TEST_CACHE_SIZE);
+
+        // a refused key is not put
+        assertFalse(cache.putIfAbsent(-1, -1));
+        assertFalse(cache.containsKey(-1));
+    }
+
+    @Test
+    public void testOneAccessPerOperation()
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setTypes(Integer.class, Integer.class);
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        configuration.setAdmissionFilterEnabled(true);
+        configuration.setReadThrough(true);
+        configuration.setCacheLoaderFactory(() -> new CacheLoader<Integer, Integer>()
+        {
+            @Override
+            public Integer load(Integer key)
+            {
+                return key;
+            }
+
+            @Override
+            public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys)
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        Cache<Integer, Integer> cache = cacheManager.createCache("readThroughCache", configuration);
+
+        GuavaCacheStatistics statistics = cache.unwrap(GuavaCache.class).getStatistics();
+
+        // every key is used once, the victims included
+        for (int i = 0; i < TEST_CACHE_SIZE * 2; i++)
+        {
+            cache.put(i, i);
+        }
+
+        long puts = statistics.getPuts();
+
+        // a refused key is not counted as put
+        cache.put(-1, -1);
+
+        assertFalse(cache.containsKey(-1));
+        assertEquals(puts, statistics.getPuts());
+
+        // a read-through load is counted once, by the get that triggers it
+        assertEquals(Integer.valueOf(-2), cache.get(-2));
+        assertFalse(cache.containsKey(-2));
+
+        // and a put is counted on its own, the key is then used more than the victim
+        cache.put(-2, -2);
+
+        assertTrue(cache.containsKey(-2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdmissionFilterWithoutMaximumSize()
+        throws Exception
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setAdmissionFilterEnabled(true);
+
+        cachingProvider.getCacheManager(new URI("unbounded"), getClass().getClassLoader(), new Properties())
+                       .createCache("cache", configuration);
+    }
+
+    @Test
+    public void testFrequencySketch()
+    {
+        GuavaFrequencySketch sketch = new GuavaFrequencySketch(16);
+
+        for (int i = 0; i < 10; i++)
+        {
+            sketch.increment(-1);
+        }
+
+        assertEquals(10, sketch.frequency(-1));
+
+        // reaching ten times the expected entries halves every counter
+        for (int i = 0; i < 150; i++)
+        {
+            sketch.increment(i);
+        }
+
+        assertTrue(sketch.frequency(-1) >= 5);
+        assertTrue(sketch.frequency(-1) < 10);
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName, boolean admissionFilterEnabled)
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setTypes(Integer.class, Integer.class);
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        configuration.setAdmissionFilterEnabled(admissionFilterEnabled);
+
+        return cacheManager.createCache(cacheName, configuration);
+    }
+
+    // returns the number of hot keys still cached after a scan of keys read once
+    private int scan(Cache<Integer, Integer> cache)
+    {
+        for (int i = 0; i < HOT_KEYS; i++)
+        {
+            cache.put(i, i);
+
+            for (int j = 0; j < 5; j++)
+            {
+                cache.get(i);
+            }
+        }
+
+        for (int i = HOT_KEYS; i < HOT_KEYS + SCAN_KEYS; i++)
+        {
+            cache.put(i, i);
+        }
+
+        int survivors = 0;
+
+        for (int i = 0; i < HOT_KEYS; i++)
+        {
+            if (cache.containsKey(i))
+            {
+                survivors++;
+            }
+        }
+
+        return survivors;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaCacheBudgetTest
+{
+    private static final int TEST_BUDGET = 1000;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+    private GuavaCacheBudget budget;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MAXIMUM_TOTAL_WEIGHT, String.valueOf(TEST_BUDGET));
+        // rebalanced by the test only
+        properties.setProperty(GuavaCacheManager.MAINTENANCE_INTERVAL, "3600000");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("budget"), getClass().getClassLoader(), properties);
+        budget = cacheManager.unwrap(GuavaCacheManager.class).getBudget();
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testBudget()
+    {
+        Cache<Integer, Integer> coldCache = createCache("coldCache");
+        Cache<Integer, Integer> hotCache = createCache("hotCache");
+
+        GuavaCache<?, ?> cold = coldCache.unwrap(GuavaCache.class);
+        GuavaCache<?, ?> hot = hotCache.unwrap(GuavaCache.class);
+
+        assertEquals(TEST_BUDGET, budget.getMaximumTotalWeight());
+
+        // the free space is split evenly between new caches
+        assertEquals(TEST_BUDGET / 2, cold.getCapacity());
+        assertEquals(TEST_BUDGET / 2, hot.getCapacity());
+
+        for (int i = 0; i < TEST_BUDGET; i++)
+        {
+            coldCache.put(i, i);
+        }
+
+        assertEquals(TEST_BUDGET / 2, cold.size());
+
+        for (int i = 0; i < TEST_BUDGET / 2; i++)
+        {
+            hotCache.put(i, i);
+        }
+
+        for (int i = 0; i < TEST_BUDGET / 2; i++)
+        {
+            hotCache.get(i);
+        }
+
+        assertEquals(TEST_BUDGET, budget.getTotalWeight());
+
+        // the budget moves toward the cache that is hit
+        budget.rebalance();
+
+        assertEquals(TEST_BUDGET / 4, cold.getCapacity());
+        assertEquals(TEST_BUDGET / 4, cold.size());
+        assertEquals(TEST_BUDGET * 3 / 4, hot.getCapacity());
+
+        for (int i = TEST_BUDGET / 2; i < TEST_BUDGET; i++)
+        {
+            hotCache.put(i, i);
+        }
+
+        assertEquals(TEST_BUDGET * 3 / 4, hot.size());
+        assertTrue(budget.getTotalWeight() <= TEST_BUDGET);
+
+        // a destroyed cache gives back its share
+        cacheManager.destroyCache("coldCache");
+
+        budget.rebalance();
+
+        assertEquals(TEST_BUDGET, hot.getCapacity());
+    }
+
+    @Test
+    public void testBudgetWithoutStatistics()
+    {
+        Cache<Integer, Integer> coldCache = createCache("coldCache", false);
+        Cache<Integer, Integer> hotCache = createCache("hotCache", false);
+
+        for (int i = 0; i < TEST_BUDGET / 2; i++)
+        {
+            coldCache.put(i, i);
+            hotCache.put(i, i);
+        }
+
+        for (int i = 0; i < TEST_BUDGET / 2; i++)
+        {
+            hotCache.get(i);
+        }
+
+        // the hits are counted for the budget all the same
+        budget.rebalance();
+
+        assertEquals(TEST_BUDGET / 4, coldCache.unwrap(GuavaCache.class).getCapacity());
+        assertEquals(TEST_BUDGET * 3 / 4, hotCache.unwrap(GuavaCache.class).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBudget()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MAXIMUM_TOTAL_WEIGHT, "-1");
+
+        cachingProvider.getCacheManager(new URI("invalid"), getClass().getClassLoader(), properties);
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName)
+    {
+        return createCache(cacheName, true);
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName, boolean statisticsEnabled)
+    {
+        MutableConfiguration<Integer, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(statisticsEnabled);
+        configuration.setTypes(Integer.class, Integer.class);
+
+        return cacheManager.createCache(cacheName, configuration);
+    }
+}
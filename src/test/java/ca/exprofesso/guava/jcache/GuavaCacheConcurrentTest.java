@@ -147,7 +147,7 @@ public class GuavaCacheConcurrentTest
         long cacheEvictions = (long) beanServer.getAttribute(name, "CacheEvictions");
         float averageGetTime = (float) beanServer.getAttribute(name, "AverageGetTime");
 
-        assertEquals(TEST_CACHE_SIZE, cacheGets);
+        assertEquals((THREADS * TEST_CACHE_SIZE), cacheGets);
         assertEquals((THREADS * TEST_CACHE_SIZE), (cacheHits + cacheMisses));
         assertEquals((TEST_CACHE_SIZE - MAXIMUM_CACHE_SIZE), cacheEvictions);
         assertNotEquals(0, averageGetTime);
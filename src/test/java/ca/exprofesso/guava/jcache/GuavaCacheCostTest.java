@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.integration.CompletionListenerFuture;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaCacheCostTest
+{
+    private static final int TEST_CACHE_SIZE = 10;
+    private static final int EXPENSIVE_KEYS = 5;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_CACHE_SIZE));
+        // without maintenance, the bound is only enforced by the cache operations
+        properties.setProperty(GuavaCacheManager.MAINTENANCE_INTERVAL, "0");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("cost"), getClass().getClassLoader(), properties);
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testCallerSuppliedCost()
+    {
+        GuavaCache<Integer, Integer> cache = createCache("callerCache", null).unwrap(GuavaCache.class);
+
+        for (int i = 0; i < EXPENSIVE_KEYS; i++)
+        {
+            cache.put(i, i, TimeUnit.SECONDS.toNanos(2L));
+        }
+
+        for (int i = EXPENSIVE_KEYS; i < 100; i++)
+        {
+            cache.put(i, i, TimeUnit.MILLISECONDS.toNanos(1L));
+        }
+
+        assertEquals(TEST_CACHE_SIZE, cache.size());
+
+        for (int i = 0; i < EXPENSIVE_KEYS; i++)
+        {
+            assertTrue(cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void testCostOfFailedPut()
+    {
+        GuavaCache<Integer, Integer> cache = createCache("failedCache", null).unwrap(GuavaCache.class);
+
+        cache.close();
+
+        try
+        {
+            cache.put(1, 1, TimeUnit.SECONDS.toNanos(2L));
+
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        // the cost of a key that was never stored is not kept
+        assertNull(cache.getCosts().poll());
+    }
+
+    @Test
+    public void testLoadCost()
+    {
+        Cache<Integer, Integer> cache = createCache("loaderCache", SlowCacheLoader.class);
+
+        for (int i = 0; i < EXPENSIVE_KEYS; i++)
+        {
+            assertEquals(Integer.valueOf(i), cache.get(-i - 1));
+        }
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+
+        for (int i = 0; i < EXPENSIVE_KEYS; i++)
+        {
+            assertTrue(cache.containsKey(-i - 1));
+        }
+
+        for (int i = 0; i < EXPENSIVE_KEYS; i++)
+        {
+            cache.get(-i - 1);
+        }
+
+        Map<String, Float> percentages = new GuavaCacheStatisticsMXBean(cache).getCostHitPercentages();
+
+        // one load and one hit per expensive key
+        assertEquals(0.5F, percentages.get("<100ms"), 0F);
+        assertTrue(percentages.get("<1ms") < 0.1F);
+    }
+
+    @Test
+    public void testReadThroughLimit()
+        throws Exception
+    {
+        Cache<Integer, Integer> cache = createCache("readThroughCache", SlowCacheLoader.class);
+
+        for (int i = 0; i < 1000; i++)
+        {
+            cache.get(i);
+        }
+
+        assertEquals(TEST_CACHE_SIZE, cache.unwrap(GuavaCache.class).size());
+
+        cache.getAll(keys(1000, 2000));
+
+        assertEquals(TEST_CACHE_SIZE, cache.unwrap(GuavaCache.class).size());
+
+        CompletionListenerFuture future = new CompletionListenerFuture();
+
+        cache.loadAll(keys(2000, 3000), false, future);
+
+        future.get();
+
+        assertTrue(cache.unwrap(GuavaCache.class).size() <= TEST_CACHE_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCostAwareEvictionWithoutMaximumSize()
+        throws Exception
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setCostAwareEvictionEnabled(true);
+
+        cachingProvider.getCacheManager(new URI("unbounded"), getClass().getClassLoader(), new Properties())
+                       .createCache("cache", configuration);
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName, Class<? extends CacheLoader<Integer, Integer>> loader)
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setTypes(Integer.class, Integer.class);
+        configuration.setStoreByValue(false);
+        configuration.setCostAwareEvictionEnabled(true);
+
+        if (loader != null)
+        {
+            configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+            configuration.setReadThrough(true);
+        }
+
+        return cacheManager.createCache(cacheName, configuration);
+    }
+
+    private static Set<Integer> keys(int from, int to)
+    {
+        Set<Integer> keys = new HashSet<>();
+
+        for (int i = from; i < to; i++)
+        {
+            keys.add(i);
+        }
+
+        return keys;
+    }
+
+    // negative keys take 20 ms to load
+    public static class SlowCacheLoader
+        implements CacheLoader<Integer, Integer>
+    {
+        @Override
+        public Integer load(Integer key)
+            throws CacheLoaderException
+        {
+            if (key < 0)
+            {
+                try
+                {
+                    Thread.sleep(20L);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new CacheLoaderException(e);
+                }
+
+                return -key - 1;
+            }
+
+            return key;
+        }
+
+        @Override
+        public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys)
+            throws CacheLoaderException
+        {
+            Map<Integer, Integer> values = new HashMap<>();
+
+            for (Integer key : keys)
+            {
+                values.put(key, load(key));
+            }
+
+            return values;
+        }
+    }
+}
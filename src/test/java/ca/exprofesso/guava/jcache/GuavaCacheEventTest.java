@@ -19,12 +19,20 @@ import static java.util.concurrent.TimeUnit.*;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
 import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
 import javax.cache.event.CacheEntryEvent;
 import javax.cache.event.CacheEntryEventFilter;
 import javax.cache.event.CacheEntryExpiredListener;
@@ -32,9 +40,15 @@ import javax.cache.event.CacheEntryListener;
 import javax.cache.event.CacheEntryListenerException;
 import javax.cache.event.CacheEntryRemovedListener;
 import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
 import javax.cache.expiry.Duration;
 import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.MutableEntry;
 import javax.cache.spi.CachingProvider;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
@@ -130,6 +144,386 @@ public class GuavaCacheEventTest
         }
     }
 
+    @Test(timeout = 5000L)
+    public void testAsynchronousCacheEntryListener()
+        throws Exception
+    {
+        final List<Integer> updates = Collections.synchronizedList(new ArrayList<Integer>());
+        final Thread caller = Thread.currentThread();
+
+        final CacheEntryUpdatedListener<String, Integer> updatedListener =
+            new CacheEntryUpdatedListener<String, Integer>()
+        {
+            @Override
+            public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+                throws CacheEntryListenerException
+            {
+                if (Thread.currentThread() == caller)
+                {
+                    return;
+                }
+
+                for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+                {
+                    updates.add(event.getValue());
+                }
+            }
+        };
+
+        MutableCacheEntryListenerConfiguration<String, Integer> listener =
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryListener<? super String, ? super Integer>>()
+                {
+                    @Override
+                    public CacheEntryListener<? super String, ? super Integer> create()
+                    {
+                        return updatedListener;
+                    }
+                },
+                null,
+                false,
+                false
+            );
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.addCacheEntryListenerConfiguration(listener);
+
+            Cache<String, Integer> cache = cacheManager.createCache("asyncCache", configuration);
+
+            for (int i = 0; i <= 100; i++)
+            {
+                cache.put("entry", i);
+            }
+
+            while (updates.size() != 100)
+            {
+                Thread.sleep(50);
+            }
+
+            for (int i = 0; i < 100; i++)
+            {
+                assertEquals(Integer.valueOf(i + 1), updates.get(i));
+            }
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheEventDispatcher.getObjectName(cacheManager));
+
+            assertEquals(100L, beanServer.getAttribute(name, "DispatchedEvents"));
+            assertEquals(0L, beanServer.getAttribute(name, "DroppedEvents"));
+            assertEquals(0, beanServer.getAttribute(name, "QueueDepth"));
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void testAsynchronousEventOrder()
+        throws Exception
+    {
+        final List<EventType> events = Collections.synchronizedList(new ArrayList<EventType>());
+
+        final CacheEntryListener<String, Integer> orderListener = new MyCacheEntryOrderListener(events);
+
+        MutableCacheEntryListenerConfiguration<String, Integer> listener =
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryListener<? super String, ? super Integer>>()
+                {
+                    @Override
+                    public CacheEntryListener<? super String, ? super Integer> create()
+                    {
+                        return orderListener;
+                    }
+                },
+                null,
+                false,
+                false
+            );
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.addCacheEntryListenerConfiguration(listener);
+
+            final Cache<String, Integer> cache = cacheManager.createCache("orderCache", configuration);
+
+            Thread remover = new Thread
+            (
+                () ->
+                {
+                    for (int i = 0; i < 5000; i++)
+                    {
+                        cache.remove("entry");
+                    }
+                }
+            );
+
+            remover.start();
+
+            for (int i = 0; i < 5000; i++)
+            {
+                cache.put("entry", i);
+            }
+
+            remover.join();
+
+            cache.remove("entry");
+
+            // the last write is a removal
+            while (events.isEmpty() || events.get(events.size() - 1) != EventType.REMOVED)
+            {
+                Thread.sleep(50);
+            }
+
+            EventType previous = EventType.REMOVED;
+
+            synchronized (events)
+            {
+                for (EventType eventType : events)
+                {
+                    // a creation follows a removal, anything else follows a creation or an update
+                    assertEquals((eventType == EventType.CREATED), (previous == EventType.REMOVED));
+
+                    previous = eventType;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRegisterCacheEntryListener()
+    {
+        final MyCacheEntryListener myCacheEntryListener = new MyCacheEntryListener();
+
+        MutableCacheEntryListenerConfiguration<String, Integer> listener =
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryListener<? super String, ? super Integer>>()
+                {
+                    @Override
+                    public CacheEntryListener<? super String, ? super Integer> create()
+                    {
+                        return myCacheEntryListener;
+                    }
+                },
+                null,
+                false,
+                true
+            );
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+
+            Cache<String, Integer> cache = cacheManager.createCache("cache", configuration);
+
+            cache.put("entry", 100);
+            cache.put("entry", 101);
+
+            cache.registerCacheEntryListener(listener);
+
+            assertTrue(cache.getConfiguration(CompleteConfiguration.class)
+                            .getCacheEntryListenerConfigurations()
+                            .iterator()
+                            .hasNext());
+
+            try
+            {
+                cache.registerCacheEntryListener(listener);
+                fail("should have thrown an exception - listener already registered");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // expected
+            }
+
+            cache.put("entry", 102);
+            cache.remove("entry");
+
+            assertEquals(1, myCacheEntryListener.getUpdated());
+            assertEquals(1, myCacheEntryListener.getRemoved());
+
+            cache.deregisterCacheEntryListener(listener);
+
+            cache.put("entry", 103);
+            cache.put("entry", 104);
+            cache.remove("entry");
+
+            assertEquals(1, myCacheEntryListener.getUpdated());
+            assertEquals(1, myCacheEntryListener.getRemoved());
+        }
+    }
+
+    @Test
+    public void testCreatedAndUpdatedEvents()
+    {
+        final List<CacheEntryEvent<? extends String, ? extends Integer>> events = new ArrayList<>();
+
+        final CacheEntryListener<String, Integer> writeListener = new MyCacheEntryWriteListener(events);
+
+        MutableCacheEntryListenerConfiguration<String, Integer> listener =
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryListener<? super String, ? super Integer>>()
+                {
+                    @Override
+                    public CacheEntryListener<? super String, ? super Integer> create()
+                    {
+                        return writeListener;
+                    }
+                },
+                null,
+                true,
+                true
+            );
+
+        final EntryProcessor<String, Integer, Void> increment = new EntryProcessor<String, Integer, Void>()
+        {
+            @Override
+            public Void process(MutableEntry<String, Integer> entry, Object... arguments)
+                throws EntryProcessorException
+            {
+                entry.setValue(entry.exists() ? entry.getValue() + 1 : 0);
+
+                return null;
+            }
+        };
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.addCacheEntryListenerConfiguration(listener);
+
+            Cache<String, Integer> cache = cacheManager.createCache("cache", configuration);
+
+            cache.put("1", 1);
+            cache.put("1", 2);
+            cache.putIfAbsent("1", 3);
+            cache.putIfAbsent("2", 1);
+            cache.replace("2", 2);
+            cache.replace("2", 2, 3);
+            cache.invoke("3", increment);
+            cache.invoke("3", increment);
+            cache.remove("3");
+
+            assertEquals(7, events.size());
+
+            assertEvent(events.get(0), EventType.CREATED, "1", 1, null);
+            assertEvent(events.get(1), EventType.UPDATED, "1", 2, 1);
+            assertEvent(events.get(2), EventType.CREATED, "2", 1, null);
+            assertEvent(events.get(3), EventType.UPDATED, "2", 2, 1);
+            assertEvent(events.get(4), EventType.UPDATED, "2", 3, 2);
+            assertEvent(events.get(5), EventType.CREATED, "3", 0, null);
+            assertEvent(events.get(6), EventType.UPDATED, "3", 1, 0);
+        }
+    }
+
+    private static void assertEvent(CacheEntryEvent<? extends String, ? extends Integer> event,
+                                    EventType eventType, String key, Integer value, Integer oldValue)
+    {
+        assertEquals(eventType, event.getEventType());
+        assertEquals(key, event.getKey());
+        assertEquals(value, event.getValue());
+        assertEquals(oldValue, event.getOldValue());
+        assertEquals((oldValue != null), event.isOldValueAvailable());
+    }
+
+    private static class MyCacheEntryWriteListener
+        implements CacheEntryCreatedListener<String, Integer>,
+                   CacheEntryUpdatedListener<String, Integer>
+    {
+        private final List<CacheEntryEvent<? extends String, ? extends Integer>> events;
+
+        public MyCacheEntryWriteListener(List<CacheEntryEvent<? extends String, ? extends Integer>> events)
+        {
+            this.events = events;
+        }
+
+        @Override
+        public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+            throws CacheEntryListenerException
+        {
+            for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+            {
+                this.events.add(event);
+            }
+        }
+
+        @Override
+        public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+            throws CacheEntryListenerException
+        {
+            for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+            {
+                this.events.add(event);
+            }
+        }
+    }
+
+    private static class MyCacheEntryOrderListener
+        implements CacheEntryCreatedListener<String, Integer>,
+                   CacheEntryUpdatedListener<String, Integer>,
+                   CacheEntryRemovedListener<String, Integer>
+    {
+        private final List<EventType> events;
+
+        public MyCacheEntryOrderListener(List<EventType> events)
+        {
+            this.events = events;
+        }
+
+        @Override
+        public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+            throws CacheEntryListenerException
+        {
+            add(events);
+        }
+
+        @Override
+        public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+            throws CacheEntryListenerException
+        {
+            add(events);
+        }
+
+        @Override
+        public void onRemoved(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+            throws CacheEntryListenerException
+        {
+            add(events);
+        }
+
+        private void add(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+        {
+            for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+            {
+                this.events.add(event.getEventType());
+            }
+        }
+    }
+
     private static class MyCacheEntryListener
         implements CacheEntryExpiredListener<String, Integer>,
                    CacheEntryRemovedListener<String, Integer>,
@@ -0,0 +1,602 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.expiry.AccessedExpiryPolicy;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ExpiryPolicy;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.expiry.TouchedExpiryPolicy;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class GuavaCacheExpiryTest
+{
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+    private GuavaManualTicker ticker;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.TICKER, GuavaCacheManager.MANUAL_TICKER);
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("manual"), getClass().getClassLoader(), properties);
+        ticker = (GuavaManualTicker) cacheManager.unwrap(GuavaCacheManager.class).getTicker();
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testTimingWheel()
+    {
+        GuavaTimingWheel<Integer, Integer> wheel = new GuavaTimingWheel<>(0);
+
+        List<GuavaTimingWheel.Timer<Integer, Integer>> timers = new ArrayList<>();
+
+        // from sub-millisecond to several days, across all the levels of the wheel
+        for (int i = 0; i < 48; i++)
+        {
+            GuavaTimingWheel.Timer<Integer, Integer> timer = new GuavaTimingWheel.Timer<>(i, i, (1L << i) + i);
+
+            timers.add(timer);
+
+            wheel.schedule(timer);
+        }
+
+        GuavaTimingWheel.Timer<Integer, Integer> cancelled = new GuavaTimingWheel.Timer<>(-1, -1, 1000);
+
+        wheel.schedule(cancelled);
+        wheel.cancel(cancelled);
+
+        List<GuavaTimingWheel.Timer<Integer, Integer>> expired = new ArrayList<>();
+
+        long now = 0;
+
+        while (expired.size() < timers.size())
+        {
+            long previous = now;
+
+            now += TimeUnit.MILLISECONDS.toNanos(1) + (now / 64);
+
+            int before = expired.size();
+
+            wheel.advance(now, expired);
+
+            for (GuavaTimingWheel.Timer<Integer, Integer> timer : expired.subList(before, expired.size()))
+            {
+                assertTrue(timer.isExpired(now));
+            }
+
+            // never early, and at most one advance late
+            for (GuavaTimingWheel.Timer<Integer, Integer> timer : timers)
+            {
+                if (!expired.contains(timer))
+                {
+                    assertFalse(timer.isExpired(previous));
+                }
+            }
+        }
+
+        assertFalse(expired.contains(cancelled));
+    }
+
+    @Test(timeout = 5000L)
+    public void testCreatedExpiryPolicy()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 100)));
+
+        Cache<String, Integer> cache = cacheManager.createCache("createdCache", configuration);
+
+        cache.put("entry", 1);
+
+        assertEquals(Integer.valueOf(1), cache.get("entry"));
+
+        ticker.advance(50, MILLISECONDS);
+
+        // an update does not extend the expiry of a created policy
+        cache.put("entry", 2);
+
+        ticker.advance(49, MILLISECONDS);
+
+        assertTrue(cache.containsKey("entry"));
+
+        ticker.advance(1, MILLISECONDS);
+
+        assertFalse(cache.containsKey("entry"));
+        assertNull(cache.get("entry"));
+        assertTrue(cache.putIfAbsent("entry", 3));
+        assertEquals(Integer.valueOf(3), cache.get("entry"));
+    }
+
+    @Test(timeout = 5000L)
+    public void testAccessedExpiryPolicy()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 200)));
+
+        Cache<String, Integer> cache = cacheManager.createCache("accessedCache", configuration);
+
+        cache.put("entry1", 1);
+        cache.put("entry2", 2);
+
+        for (int i = 0; i < 4; i++)
+        {
+            ticker.advance(75, MILLISECONDS);
+
+            assertEquals(Integer.valueOf(1), cache.get("entry1"));
+        }
+
+        assertFalse(cache.containsKey("entry2"));
+        assertTrue(cache.containsKey("entry1"));
+
+        ticker.advance(200, MILLISECONDS);
+
+        assertFalse(cache.iterator().hasNext());
+    }
+
+    @Test(timeout = 5000L)
+    public void testCustomExpiryPolicy()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory
+        (
+            new Factory<ExpiryPolicy>()
+            {
+                @Override
+                public ExpiryPolicy create()
+                {
+                    return new ExpiryPolicy()
+                    {
+                        @Override
+                        public Duration getExpiryForCreation()
+                        {
+                            return new Duration(MILLISECONDS, 100);
+                        }
+
+                        @Override
+                        public Duration getExpiryForAccess()
+                        {
+                            return null;
+                        }
+
+                        @Override
+                        public Duration getExpiryForUpdate()
+                        {
+                            return Duration.ETERNAL;
+                        }
+                    };
+                }
+            }
+        );
+
+        Cache<String, Integer> cache = cacheManager.createCache("customCache", configuration);
+
+        cache.put("created", 1);
+        cache.put("updated", 1);
+        cache.put("updated", 2);
+
+        ticker.advance(100, MILLISECONDS);
+
+        assertNull(cache.get("created"));
+        assertEquals(Integer.valueOf(2), cache.get("updated"));
+    }
+
+    @Test(timeout = 5000L)
+    public void testExpiredEventsWithoutReads()
+    {
+        final AtomicInteger expired = new AtomicInteger();
+
+        final CacheEntryExpiredListener<String, Integer> listener = new CacheEntryExpiredListener<String, Integer>()
+        {
+            @Override
+            public void onExpired(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+                throws CacheEntryListenerException
+            {
+                for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+                {
+                    expired.incrementAndGet();
+                }
+            }
+        };
+
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 10)));
+        configuration.addCacheEntryListenerConfiguration
+        (
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryExpiredListener<String, Integer>>()
+                {
+                    @Override
+                    public CacheEntryExpiredListener<String, Integer> create()
+                    {
+                        return listener;
+                    }
+                },
+                null,
+                false,
+                true
+            )
+        );
+
+        Cache<String, Integer> cache = cacheManager.createCache("expiredCache", configuration);
+
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("entry" + i, i);
+        }
+
+        ticker.advance(10, MILLISECONDS);
+
+        cache.unwrap(GuavaCache.class).cleanUp();
+
+        assertEquals(100, expired.get());
+        assertEquals(0, cache.unwrap(GuavaCache.class).size());
+    }
+
+    @Test(timeout = 5000L)
+    public void testBackgroundExpiry()
+        throws Exception
+    {
+        final AtomicInteger expired = new AtomicInteger();
+
+        final CacheEntryExpiredListener<String, Integer> listener = new CacheEntryExpiredListener<String, Integer>()
+        {
+            @Override
+            public void onExpired(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+                throws CacheEntryListenerException
+            {
+                for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+                {
+                    expired.incrementAndGet();
+                }
+            }
+        };
+
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MAINTENANCE_INTERVAL, "10");
+        properties.setProperty(GuavaCacheManager.MAINTENANCE_MAXIMUM_INTERVAL, "20");
+        properties.setProperty("maximumSize", "100");
+
+        CacheManager maintainedCacheManager =
+            cachingProvider.getCacheManager(new URI("maintenance"), getClass().getClassLoader(), properties);
+
+        for (Factory<? extends ExpiryPolicy> expiryPolicyFactory
+                 : Arrays.asList(ModifiedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 10)),
+                                 CreatedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 10))))
+        {
+            expired.set(0);
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setExpiryPolicyFactory(expiryPolicyFactory);
+            configuration.addCacheEntryListenerConfiguration
+            (
+                new MutableCacheEntryListenerConfiguration<>
+                (
+                    new Factory<CacheEntryExpiredListener<String, Integer>>()
+                    {
+                        @Override
+                        public CacheEntryExpiredListener<String, Integer> create()
+                        {
+                            return listener;
+                        }
+                    },
+                    null,
+                    false,
+                    true
+                )
+            );
+
+            Cache<String, Integer> cache = maintainedCacheManager.createCache("maintainedCache", configuration);
+
+            cache.put("entry1", 1);
+            cache.put("entry2", 2);
+            cache.put("entry3", 3);
+
+            // no further operation on the cache, the maintenance thread expires the entries
+            while (expired.get() != 3)
+            {
+                Thread.sleep(10);
+            }
+
+            maintainedCacheManager.destroyCache(cache.getName());
+        }
+    }
+
+    @Test
+    public void testTouchedExpiryPolicyWithManualTicker()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(TouchedExpiryPolicy.factoryOf(Duration.ONE_MINUTE));
+
+        Cache<String, Integer> cache = cacheManager.createCache("touchedCache", configuration);
+
+        cache.put("entry", 1);
+
+        ticker.advance(59, TimeUnit.SECONDS);
+
+        assertEquals(Integer.valueOf(1), cache.get("entry"));
+
+        ticker.advance(59, TimeUnit.SECONDS);
+
+        assertEquals(Integer.valueOf(1), cache.get("entry"));
+
+        ticker.advance(1, TimeUnit.MINUTES);
+
+        assertNull(cache.get("entry"));
+    }
+
+    @Test
+    public void testReadOnlyInvokeKeepsModifiedExpiry()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 10)));
+
+        Cache<String, Integer> cache = cacheManager.createCache("readOnlyInvokeCache", configuration);
+
+        cache.put("read", 1);
+        cache.put("write", 1);
+
+        ticker.advance(8, TimeUnit.SECONDS);
+
+        assertTrue(cache.invoke("read", (entry, arguments) -> entry.exists()));
+        assertEquals(Integer.valueOf(1), cache.invoke("read", (entry, arguments) -> entry.getValue()));
+        assertTrue(cache.invoke("write", (entry, arguments) ->
+        {
+            entry.setValue(2);
+
+            return true;
+        }));
+
+        ticker.advance(5, TimeUnit.SECONDS);
+
+        // reading the entry is no modification
+        assertNull(cache.get("read"));
+        assertEquals(Integer.valueOf(2), cache.get("write"));
+    }
+
+    @Test
+    public void testBulkInvokeAccessesReadEntries()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 10)));
+
+        Cache<String, Integer> cache = cacheManager.createCache("bulkInvokeCache", configuration);
+
+        cache.put("read", 1);
+        cache.put("write", 1);
+
+        ticker.advance(8, TimeUnit.SECONDS);
+
+        GuavaCache<String, Integer> guavaCache = cache.unwrap(GuavaCache.class);
+
+        guavaCache.invokeBulk
+        (
+            Sets.newHashSet("read", "write"),
+            (entries, arguments) ->
+            {
+                for (GuavaMutableEntry<String, Integer> entry : entries)
+                {
+                    if (entry.getKey().equals("write"))
+                    {
+                        entry.setValue(entry.getValue() + 1);
+                    }
+                }
+            }
+        );
+
+        ticker.advance(5, TimeUnit.SECONDS);
+
+        // the entry only read was accessed like by invoke(), the one written keeps its creation expiry
+        assertEquals(Integer.valueOf(1), cache.get("read"));
+        assertNull(cache.get("write"));
+    }
+
+    @Test
+    public void testFailedConditionalWritesKeepModifiedExpiry()
+    {
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 10)));
+
+        Cache<String, Integer> cache = cacheManager.createCache("conditionalCache", configuration);
+
+        cache.put("putIfAbsent", 1);
+        cache.put("remove", 1);
+        cache.put("replace", 1);
+
+        ticker.advance(8, TimeUnit.SECONDS);
+
+        assertFalse(cache.putIfAbsent("putIfAbsent", 2));
+        assertFalse(cache.remove("remove", 2));
+        assertFalse(cache.replace("replace", 2, 3));
+
+        ticker.advance(5, TimeUnit.SECONDS);
+
+        assertNull(cache.get("putIfAbsent"));
+        assertNull(cache.get("remove"));
+        assertNull(cache.get("replace"));
+    }
+
+    @Test
+    public void testZeroCreationExpiry()
+    {
+        final AtomicInteger created = new AtomicInteger();
+
+        final CacheEntryCreatedListener<String, Integer> listener = new CacheEntryCreatedListener<String, Integer>()
+        {
+            @Override
+            public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends Integer>> events)
+                throws CacheEntryListenerException
+            {
+                for (CacheEntryEvent<? extends String, ? extends Integer> event : events)
+                {
+                    created.incrementAndGet();
+                }
+            }
+        };
+
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(Duration.ZERO));
+
+        Cache<String, Integer> cache = cacheManager.createCache("zeroCache", configuration);
+
+        // without listeners, put() does not go through compute()
+        cache.put("put", 1);
+
+        assertFalse(cache.containsKey("put"));
+
+        cache.registerCacheEntryListener
+        (
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryCreatedListener<String, Integer>>()
+                {
+                    @Override
+                    public CacheEntryCreatedListener<String, Integer> create()
+                    {
+                        return listener;
+                    }
+                },
+                null,
+                false,
+                true
+            )
+        );
+
+        cache.put("put", 1);
+        cache.putIfAbsent("putIfAbsent", 1);
+        cache.invoke("invoke", (entry, arguments) ->
+        {
+            entry.setValue(1);
+
+            return null;
+        });
+
+        assertFalse(cache.containsKey("put"));
+        assertFalse(cache.containsKey("putIfAbsent"));
+        assertFalse(cache.containsKey("invoke"));
+        assertEquals(0, created.get());
+        assertEquals(0, cache.unwrap(GuavaCache.class).size());
+    }
+
+    @Test(timeout = 5000L)
+    public void testCoarseTicker()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.TICKER, GuavaCacheManager.COARSE_TICKER);
+
+        CacheManager coarseCacheManager =
+            cachingProvider.getCacheManager(new URI("coarse"), getClass().getClassLoader(), properties);
+
+        GuavaCacheManager guavaCacheManager = coarseCacheManager.unwrap(GuavaCacheManager.class);
+
+        assertSame(GuavaCoarseTicker.getInstance(), guavaCacheManager.getTicker());
+
+        long start = guavaCacheManager.getTicker().read();
+
+        while (guavaCacheManager.getTicker().read() == start)
+        {
+            Thread.sleep(1);
+        }
+
+        MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(String.class, Integer.class);
+        configuration.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(MILLISECONDS, 50)));
+
+        Cache<String, Integer> cache = coarseCacheManager.createCache("coarseCache", configuration);
+
+        cache.put("entry", 1);
+
+        assertEquals(Integer.valueOf(1), cache.get("entry"));
+
+        while (cache.get("entry") != null)
+        {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.MutableEntry;
+import javax.cache.spi.CachingProvider;
+
+import org.bitstrings.test.junit.runner.ClassLoaderPerTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+// run with -Dbenchmark=true, it takes too long for the default build
+@RunWith(ClassLoaderPerTestRunner.class)
+public class GuavaCacheInvokeBenchmarkTest
+{
+    // the most threads must at least do that many times the invokes of a single thread, given as many processors
+    private static final double MINIMUM_SPEEDUP = 1.5;
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+    private static final int KEYS_PER_THREAD = 1_000;
+    private static final int INVOKES_PER_THREAD = 200_000;
+
+    private static final EntryProcessor<Integer, Long, Long> INCREMENT = new EntryProcessor<Integer, Long, Long>()
+    {
+        @Override
+        public Long process(MutableEntry<Integer, Long> entry, Object... arguments)
+            throws EntryProcessorException
+        {
+            long value = entry.exists() ? entry.getValue() + 1 : 1;
+
+            entry.setValue(value);
+
+            return value;
+        }
+    };
+
+    // every invoke creates or removes its entry, so that each one schedules or cancels a timer of the wheel
+    private static final EntryProcessor<Integer, Long, Long> TOGGLE = new EntryProcessor<Integer, Long, Long>()
+    {
+        @Override
+        public Long process(MutableEntry<Integer, Long> entry, Object... arguments)
+            throws EntryProcessorException
+        {
+            if (entry.exists())
+            {
+                entry.remove();
+            }
+            else
+            {
+                entry.setValue(1L);
+            }
+
+            return null;
+        }
+    };
+
+    @Test(timeout = 120000L)
+    public void testInvokeThroughput()
+        throws Exception
+    {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        MutableConfiguration<Integer, Long> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(Integer.class, Long.class);
+
+        long[] throughputs = measure(configuration, INCREMENT, Long.valueOf(INVOKES_PER_THREAD / KEYS_PER_THREAD));
+
+        if (Runtime.getRuntime().availableProcessors() >= THREADS[THREADS.length - 1])
+        {
+            assertTrue(throughputs[THREADS.length - 1] >= throughputs[0] * MINIMUM_SPEEDUP);
+        }
+    }
+
+    @Test(timeout = 120000L)
+    public void testInvokeThroughputWithExpiry()
+        throws Exception
+    {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        MutableConfiguration<Integer, Long> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(Integer.class, Long.class);
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(Duration.ONE_HOUR));
+
+        // an even number of toggles per key leaves every key absent
+        long[] throughputs = measure(configuration, TOGGLE, null);
+
+        if (Runtime.getRuntime().availableProcessors() >= THREADS[THREADS.length - 1])
+        {
+            assertTrue(throughputs[THREADS.length - 1] >= throughputs[0] * MINIMUM_SPEEDUP);
+        }
+    }
+
+    private long[] measure(MutableConfiguration<Integer, Long> configuration,
+                           final EntryProcessor<Integer, Long, Long> entryProcessor, Long expected)
+        throws Exception
+    {
+        Properties properties = new Properties()
+        {
+            {
+                setProperty("concurrencyLevel", "64");
+                setProperty("maximumSize", "1000000");
+            }
+        };
+
+        CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+
+        CacheManager cacheManager = cachingProvider.getCacheManager(null, null, properties);
+
+        long[] throughputs = new long[THREADS.length];
+
+        for (int n = 0; n < THREADS.length; n++)
+        {
+            int threads = THREADS[n];
+
+            final Cache<Integer, Long> cache = cacheManager.createCache("invokeCache" + threads, configuration);
+
+            List<Callable<Void>> workers = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++)
+            {
+                final int offset = t * KEYS_PER_THREAD;
+
+                workers.add
+                (
+                    new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                        {
+                            for (int i = 0; i < INVOKES_PER_THREAD; i++)
+                            {
+                                cache.invoke(offset + (i % KEYS_PER_THREAD), entryProcessor);
+                            }
+
+                            return null;
+                        }
+                    }
+                );
+            }
+
+            ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+            long start = System.nanoTime();
+
+            for (Future<Void> f : executorService.invokeAll(workers))
+            {
+                f.get();
+            }
+
+            long elapsed = System.nanoTime() - start;
+
+            executorService.shutdown();
+
+            long invokes = (long) threads * INVOKES_PER_THREAD;
+
+            throughputs[n] = (invokes * TimeUnit.SECONDS.toNanos(1)) / Math.max(1, elapsed);
+
+            for (int key = 0; key < (threads * KEYS_PER_THREAD); key++)
+            {
+                assertEquals(expected, cache.get(key));
+            }
+
+            cacheManager.destroyCache(cache.getName());
+        }
+
+        cachingProvider.close();
+
+        return throughputs;
+    }
+}
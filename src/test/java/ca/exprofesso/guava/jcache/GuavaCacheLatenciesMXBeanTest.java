@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.spi.CachingProvider;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+public class GuavaCacheLatenciesMXBeanTest
+{
+    @Test
+    public void testHistogramPercentiles()
+    {
+        GuavaLatencyHistogram histogram = new GuavaLatencyHistogram();
+
+        for (long i = 1; i <= 1000; i++)
+        {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+
+        // within the 1/16 precision of the buckets
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 / 16);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 / 16);
+        assertEquals(1_000_000, histogram.getPercentile(100));
+
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testHistogramBuckets()
+    {
+        for (long value : new long[] { 0, 1, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE })
+        {
+            int index = GuavaLatencyHistogram.indexOf(value);
+
+            assertTrue(value <= GuavaLatencyHistogram.highestValueAt(index));
+
+            if (index > 0)
+            {
+                assertTrue(value > GuavaLatencyHistogram.highestValueAt(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testCacheLatenciesBean()
+        throws Exception
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setStatisticsEnabled(true);
+
+            Cache<String, Integer> latencyCache = cacheManager.createCache("latencyCache", configuration);
+
+            latencyCache.put("entry1", 1);
+            latencyCache.put("entry2", 2);
+
+            latencyCache.get("entry1");
+            latencyCache.get("entry2");
+            latencyCache.get("entry3");
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheLatencies.getObjectName(latencyCache));
+
+            assertEquals(true, beanServer.getAttribute(name, "Enabled"));
+
+            CompositeData hits = (CompositeData) beanServer.getAttribute(name, "GetHitLatency");
+            CompositeData misses = (CompositeData) beanServer.getAttribute(name, "GetMissLatency");
+            CompositeData puts = (CompositeData) beanServer.getAttribute(name, "PutLatency");
+
+            assertEquals(2L, hits.get("count"));
+            assertEquals(1L, misses.get("count"));
+            assertEquals(2L, puts.get("count"));
+            assertTrue((float) hits.get("p50") <= (float) hits.get("max"));
+
+            beanServer.setAttribute(name, new Attribute("Enabled", false));
+
+            latencyCache.get("entry1");
+
+            hits = (CompositeData) beanServer.getAttribute(name, "GetHitLatency");
+
+            assertEquals(2L, hits.get("count"));
+
+            beanServer.invoke(name, "clear", null, null);
+
+            hits = (CompositeData) beanServer.getAttribute(name, "GetHitLatency");
+
+            assertEquals(0L, hits.get("count"));
+        }
+    }
+
+    @Test
+    public void testCacheLatenciesWithoutStatistics()
+        throws Exception
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+
+            Cache<String, Integer> latencyCache = cacheManager.createCache("latencyOnlyCache", configuration);
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheLatencies.getObjectName(latencyCache));
+
+            assertEquals(false, beanServer.getAttribute(name, "Enabled"));
+
+            beanServer.setAttribute(name, new Attribute("Enabled", true));
+
+            latencyCache.put("entry1", 1);
+            latencyCache.get("entry1");
+
+            assertEquals(1L, ((CompositeData) beanServer.getAttribute(name, "GetHitLatency")).get("count"));
+
+            // switching statistics leaves the latencies alone
+            cacheManager.enableStatistics("latencyOnlyCache", true);
+            cacheManager.enableStatistics("latencyOnlyCache", false);
+
+            assertEquals(true, beanServer.getAttribute(name, "Enabled"));
+
+            latencyCache.close();
+
+            assertFalse(beanServer.isRegistered(name));
+        }
+    }
+
+    @Test
+    public void testNoBeanLeftByFailedCache()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        // rejected by Guava once the cache is built
+        properties.setProperty("maximumSize", "10");
+        properties.setProperty("maximumWeight", "10");
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager =
+                cachingProvider.getCacheManager(new URI("failed"), getClass().getClassLoader(), properties);
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setStatisticsEnabled(true);
+            configuration.setManagementEnabled(true);
+
+            try
+            {
+                cacheManager.createCache("failedCache", configuration);
+
+                fail();
+            }
+            catch (IllegalArgumentException e)
+            {
+                // expected
+            }
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            assertTrue(beanServer.queryNames(new ObjectName("javax.cache:Cache=failedCache,*"), null).isEmpty());
+        }
+    }
+}
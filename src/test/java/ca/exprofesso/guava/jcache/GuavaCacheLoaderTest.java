@@ -18,8 +18,10 @@ package ca.exprofesso.guava.jcache;
 import static org.junit.Assert.*;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -202,4 +204,176 @@ public class GuavaCacheLoaderTest
             assertEquals(Integer.valueOf(6), loadingCache.getAndRemove("6"));
         }
     }
+
+    @Test(timeout = 5000L)
+    public void testCacheLoaderAsyncBulkLoadAll()
+        throws InterruptedException
+    {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger bulkLoads = new AtomicInteger();
+
+        final CacheLoader<String, Integer> cacheLoader = new CacheLoader<String, Integer>()
+        {
+            @Override
+            public Integer load(String key)
+                throws CacheLoaderException
+            {
+                loads.incrementAndGet();
+
+                return Integer.valueOf(key);
+            }
+
+            @Override
+            public Map<String, Integer> loadAll(Iterable<? extends String> keys)
+                throws CacheLoaderException
+            {
+                bulkLoads.incrementAndGet();
+
+                Map<String, Integer> map = new HashMap<>();
+
+                for (String key : keys)
+                {
+                    map.put(key, Integer.valueOf(key));
+                }
+
+                return map;
+            }
+        };
+
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        final CompletionListener completionListener = new CompletionListener()
+        {
+            @Override
+            public void onCompletion()
+            {
+                completed.countDown();
+            }
+
+            @Override
+            public void onException(Exception e)
+            {
+                fail(e.toString());
+            }
+        };
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> custom = new MutableConfiguration<>();
+
+            custom.setStoreByValue(false);
+            custom.setTypes(String.class, Integer.class);
+            custom.setReadThrough(true);
+            custom.setCacheLoaderFactory
+            (
+                new Factory<CacheLoader<String, Integer>>()
+                {
+                    @Override
+                    public CacheLoader<String, Integer> create()
+                    {
+                        return cacheLoader;
+                    }
+                }
+            );
+
+            Cache<String, Integer> loadingCache = cacheManager.createCache("loadingCache", custom);
+
+            Set<String> keys = new HashSet<>();
+
+            for (int i = 0; i < 500; i++)
+            {
+                keys.add(String.valueOf(i));
+            }
+
+            loadingCache.loadAll(keys, false, completionListener);
+
+            completed.await();
+
+            assertEquals(0, loads.get());
+            assertTrue(bulkLoads.get() > 0);
+
+            for (String key : keys)
+            {
+                assertEquals(Integer.valueOf(key), loadingCache.getAndRemove(key));
+            }
+
+            assertEquals(0, loads.get());
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void testCacheLoaderLoadAllStatistics()
+        throws InterruptedException
+    {
+        final CacheLoader<String, Integer> cacheLoader = new CacheLoader<String, Integer>()
+        {
+            @Override
+            public Integer load(String key)
+                throws CacheLoaderException
+            {
+                return Integer.valueOf(key);
+            }
+
+            @Override
+            public Map<String, Integer> loadAll(Iterable<? extends String> keys)
+                throws CacheLoaderException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> custom = new MutableConfiguration<>();
+
+            custom.setStoreByValue(false);
+            custom.setTypes(String.class, Integer.class);
+            custom.setStatisticsEnabled(true);
+            custom.setReadThrough(true);
+            custom.setCacheLoaderFactory
+            (
+                new Factory<CacheLoader<String, Integer>>()
+                {
+                    @Override
+                    public CacheLoader<String, Integer> create()
+                    {
+                        return cacheLoader;
+                    }
+                }
+            );
+
+            Cache<String, Integer> loadingCache = cacheManager.createCache("loadingCache", custom);
+
+            loadingCache.put("1", 1);
+
+            loadingCache.loadAll(Sets.newHashSet("1", "2", "3"), false, new CompletionListener()
+            {
+                @Override
+                public void onCompletion()
+                {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onException(Exception e)
+                {
+                    fail(e.toString());
+                }
+            });
+
+            completed.await();
+
+            GuavaCache<?, ?> guavaCache = loadingCache.unwrap(GuavaCache.class);
+
+            // loaded one key at a time, through the loader of the cache
+            assertEquals(2, guavaCache.getStatistics().snapshot().getLoadSuccesses());
+            assertEquals(1, guavaCache.getStatistics().getPuts());
+        }
+    }
 }
@@ -86,4 +86,37 @@ public class GuavaCacheMXBeanTest
             assertTrue((boolean) managementEnabled);
         }
     }
+
+    @Test
+    public void testEnableManagement()
+        throws Exception
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+
+            Cache<String, Integer> managementCache = cacheManager.createCache("enableManagementCache", configuration);
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheMXBean.getObjectName(managementCache));
+
+            assertFalse(beanServer.isRegistered(name));
+
+            cacheManager.enableManagement(managementCache.getName(), true);
+
+            assertTrue(beanServer.isRegistered(name));
+            assertTrue((boolean) beanServer.getAttribute(name, "ManagementEnabled"));
+
+            cacheManager.enableManagement(managementCache.getName(), false);
+
+            assertFalse(beanServer.isRegistered(name));
+            assertFalse(managementCache.getConfiguration(MutableConfiguration.class).isManagementEnabled());
+        }
+    }
 }
@@ -17,8 +17,12 @@ package ca.exprofesso.guava.jcache;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.Properties;
 
 import javax.cache.Cache;
@@ -26,6 +30,7 @@ import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.configuration.Factory;
 import javax.cache.configuration.MutableConfiguration;
 import javax.cache.expiry.AccessedExpiryPolicy;
 import javax.cache.expiry.CreatedExpiryPolicy;
@@ -33,6 +38,9 @@ import javax.cache.expiry.Duration;
 import javax.cache.expiry.ModifiedExpiryPolicy;
 import javax.cache.expiry.TouchedExpiryPolicy;
 import javax.cache.spi.CachingProvider;
+import javax.management.ObjectName;
+
+import com.google.common.cache.Weigher;
 
 import org.bitstrings.test.junit.runner.ClassLoaderPerTestRunner;
 import org.junit.After;
@@ -171,6 +179,220 @@ public class GuavaCacheManagerTest
         }
     }
 
+    @Test
+    public void testCacheManagerWithMaximumWeight()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumWeight", "100000");
+        properties.setProperty("concurrencyLevel", "1");
+
+        try (CacheManager cacheManager = cachingProvider.getCacheManager(null, null, properties))
+        {
+            GuavaConfiguration<Long, byte[]> configuration = new GuavaConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setManagementEnabled(true);
+            configuration.setWeigherFactory
+            (
+                new Factory<Weigher<Long, byte[]>>()
+                {
+                    @Override
+                    public Weigher<Long, byte[]> create()
+                    {
+                        return new Weigher<Long, byte[]>()
+                        {
+                            @Override
+                            public int weigh(Long key, byte[] value)
+                            {
+                                return value.length;
+                            }
+                        };
+                    }
+                }
+            );
+
+            Cache<Long, byte[]> weighedCache = cacheManager.createCache("weighedCache", configuration);
+
+            for (long l = 1; l <= 1000; l++)
+            {
+                weighedCache.put(l, new byte[(int) (l * 10)]);
+            }
+
+            GuavaCache<?, ?> guavaCache = weighedCache.unwrap(GuavaCache.class);
+
+            assertTrue(guavaCache.getTotalWeight() <= 100000);
+            assertTrue(guavaCache.getTotalWeight() > 0);
+
+            ObjectName name = new ObjectName(GuavaCacheMXBean.getObjectName(weighedCache));
+
+            assertEquals(guavaCache.getTotalWeight(),
+                         ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TotalWeight"));
+
+            weighedCache.removeAll();
+            guavaCache.cleanUp();
+
+            assertEquals(0L, guavaCache.getTotalWeight());
+
+            // without a weigher, the size of the entries is estimated
+            MutableConfiguration<Long, byte[]> estimatedConfiguration = new MutableConfiguration<>();
+
+            estimatedConfiguration.setStoreByValue(false);
+
+            Cache<Long, byte[]> estimatedCache = cacheManager.createCache("estimatedCache", estimatedConfiguration);
+
+            estimatedCache.put(1L, new byte[1000]);
+
+            assertEquals(GuavaSizeEstimator.INSTANCE.weigh(1L, new byte[1000]),
+                         estimatedCache.unwrap(GuavaCache.class).getTotalWeight());
+
+            // every value is estimated on its own, whatever its class
+            assertTrue(GuavaSizeEstimator.estimate(new LinkedList<>(Collections.nCopies(1000, 1L)))
+                       > 1000 * GuavaSizeEstimator.estimate(new LinkedList<>()));
+
+            BitSet small = new BitSet();
+            BitSet large = new BitSet();
+
+            small.set(10);
+            large.set(1000000);
+
+            assertTrue(GuavaSizeEstimator.estimate(large) > 100 * GuavaSizeEstimator.estimate(small));
+        }
+    }
+
+    @Test
+    public void testTotalWeightOfMutatedValues()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumWeight", "100000");
+
+        try (CacheManager cacheManager = cachingProvider.getCacheManager(null, null, properties))
+        {
+            GuavaConfiguration<Long, ArrayList<Integer>> configuration = new GuavaConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setWeigherFactory
+            (
+                new Factory<Weigher<Long, ArrayList<Integer>>>()
+                {
+                    @Override
+                    public Weigher<Long, ArrayList<Integer>> create()
+                    {
+                        return (key, value) -> value.size() + 1;
+                    }
+                }
+            );
+
+            Cache<Long, ArrayList<Integer>> weighedCache = cacheManager.createCache("mutatedCache", configuration);
+
+            GuavaCache<?, ?> guavaCache = weighedCache.unwrap(GuavaCache.class);
+
+            ArrayList<Integer> value = new ArrayList<>();
+
+            weighedCache.put(1L, value);
+            weighedCache.put(2L, new ArrayList<>());
+
+            assertEquals(2L, guavaCache.getTotalWeight());
+
+            // the weight released is the one charged, not the one of the value as it is now
+            value.add(1);
+            value.add(2);
+
+            weighedCache.remove(1L);
+            weighedCache.put(2L, value);
+            guavaCache.cleanUp();
+
+            assertEquals(3L, guavaCache.getTotalWeight());
+
+            value.clear();
+
+            weighedCache.removeAll();
+            guavaCache.cleanUp();
+
+            assertEquals(0L, guavaCache.getTotalWeight());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheManagerWithWeigherWithoutMaximumWeight()
+        throws Exception
+    {
+        GuavaConfiguration<Long, byte[]> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setWeigherFactory(GuavaSizeEstimator.<Long, byte[]>factory());
+
+        cachingProvider.getCacheManager().createCache("weighedCache", configuration);
+    }
+
+    @Test
+    public void testCacheManagerWithWeakValues()
+        throws Exception
+    {
+        MutableConfiguration<Long, byte[]> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+
+        Properties properties = new Properties();
+
+        properties.setProperty("weakValues", "");
+
+        try (CacheManager cacheManager = cachingProvider.getCacheManager(new URI("weakValues"), null, properties))
+        {
+            assertNotNull(cacheManager.createCache("weakCache", configuration));
+        }
+
+        // the weigher would keep the values from being collected
+        properties.setProperty("maximumWeight", "100000");
+
+        try (CacheManager cacheManager = cachingProvider.getCacheManager(new URI("weighedWeakValues"), null,
+                                                                         properties))
+        {
+            cacheManager.createCache("weakCache", configuration);
+
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheManagerWithInvalidTicker()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.TICKER, String.class.getName());
+
+        cachingProvider.getCacheManager(null, null, properties);
+    }
+
+    @Test
+    public void testCacheManagerWithCustomTicker()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.TICKER, GuavaManualTicker.class.getName());
+        properties.setProperty("maximumSize", "10");
+
+        try (CacheManager cacheManager = cachingProvider.getCacheManager(null, null, properties))
+        {
+            MutableConfiguration<Number, Number> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+
+            Cache<Number, Number> cache = cacheManager.createCache("cache", configuration);
+
+            assertTrue(cache.unwrap(GuavaCache.class).getTicker() instanceof GuavaManualTicker);
+        }
+    }
+
     @Test
     public void testCacheManagerWithCustomClassLoaderAndProperties()
         throws Exception
@@ -281,30 +503,40 @@ public class GuavaCacheManagerTest
         cacheManager.createCache("cache", configuration);
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testCreateCacheWithUnsupportedAccessedExpiryPolicy()
+    @Test
+    public void testCreateCacheWithAccessedExpiryPolicy()
     {
         CacheManager cacheManager = cachingProvider.getCacheManager();
 
         MutableConfiguration<Number, Number> configuration = new MutableConfiguration<>();
 
         configuration.setStoreByValue(false);
-        configuration.setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(Duration.ZERO));
+        configuration.setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(Duration.ONE_HOUR));
 
-        cacheManager.createCache("cache", configuration);
+        Cache cache = cacheManager.createCache("cache", configuration);
+
+        CompleteConfiguration actualConfiguration =
+            (CompleteConfiguration) cache.getConfiguration(CompleteConfiguration.class);
+
+        assertEquals(AccessedExpiryPolicy.factoryOf(Duration.ONE_HOUR), actualConfiguration.getExpiryPolicyFactory());
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testCreateCacheWithUnsupportedCreatedExpiryPolicy()
+    @Test
+    public void testCreateCacheWithCreatedExpiryPolicy()
     {
         CacheManager cacheManager = cachingProvider.getCacheManager();
 
         MutableConfiguration<Number, Number> configuration = new MutableConfiguration<>();
 
         configuration.setStoreByValue(false);
-        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(Duration.ZERO));
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(Duration.ONE_HOUR));
 
-        cacheManager.createCache("cache", configuration);
+        Cache cache = cacheManager.createCache("cache", configuration);
+
+        CompleteConfiguration actualConfiguration =
+            (CompleteConfiguration) cache.getConfiguration(CompleteConfiguration.class);
+
+        assertEquals(CreatedExpiryPolicy.factoryOf(Duration.ONE_HOUR), actualConfiguration.getExpiryPolicyFactory());
     }
 
     @Test
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaCacheOffHeapTest
+{
+    private static final int TEST_HEAP_SIZE = 10;
+    private static final int TEST_CACHE_SIZE = 100;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_HEAP_SIZE));
+        properties.setProperty("concurrencyLevel", "1");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("offHeap"), getClass().getClassLoader(), properties);
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testOffHeapStore()
+    {
+        GuavaOffHeapStore<Integer> store = new GuavaOffHeapStore<>(4096);
+
+        byte[] bytes = new byte[GuavaOffHeapStore.MINIMUM_CHUNK_SIZE];
+
+        // a single slab, taken by the first size class used
+        for (int i = 0; i < 4096 / bytes.length; i++)
+        {
+            Arrays.fill(bytes, (byte) i);
+
+            assertEquals(0, store.put(i, bytes, GuavaTimingWheel.ETERNAL));
+        }
+
+        assertEquals(4096, store.getUsedBytes());
+        assertEquals(4096, store.getAllocatedBytes());
+
+        // the oldest record makes room
+        assertEquals(1, store.put(-1, bytes, GuavaTimingWheel.ETERNAL));
+        assertNull(store.get(0));
+
+        byte[] expected = new byte[bytes.length];
+
+        Arrays.fill(expected, (byte) 1);
+
+        GuavaOffHeapStore.Record<Integer> record = store.get(1);
+
+        assertArrayEquals(expected, store.read(record));
+        assertTrue(store.remove(1, record));
+        assertFalse(store.remove(1, record));
+        assertNull(store.read(record));
+
+        // the only slab is taken back from the first size class, with all its records
+        assertEquals(63, store.put(-2, new byte[bytes.length + 1], GuavaTimingWheel.ETERNAL));
+        assertEquals(1, store.size());
+        assertEquals(-1, store.put(-3, new byte[4097], GuavaTimingWheel.ETERNAL));
+
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void testOffHeapStoreSizeClasses()
+    {
+        GuavaOffHeapStore<Integer> store = new GuavaOffHeapStore<>(GuavaOffHeapStore.MAXIMUM_SLAB_SIZE);
+
+        byte[] small = new byte[32];
+        byte[] large = new byte[100 * 1024];
+
+        int chunks = GuavaOffHeapStore.MAXIMUM_SLAB_SIZE / GuavaOffHeapStore.MINIMUM_CHUNK_SIZE;
+
+        for (int i = 0; i < chunks; i++)
+        {
+            assertEquals(0, store.put(i, small, GuavaTimingWheel.ETERNAL));
+        }
+
+        store.clear();
+
+        // a cleared slab is free for any size class
+        assertEquals(0, store.put(-1, large, GuavaTimingWheel.ETERNAL));
+        assertEquals(GuavaOffHeapStore.MAXIMUM_SLAB_SIZE, store.getAllocatedBytes());
+
+        assertTrue(store.remove(-1, store.get(-1)));
+
+        for (int i = 0; i < chunks; i++)
+        {
+            assertEquals(0, store.put(i, small, GuavaTimingWheel.ETERNAL));
+        }
+
+        // and a full one is taken back from another size class
+        assertEquals(chunks, store.put(-1, large, GuavaTimingWheel.ETERNAL));
+        assertArrayEquals(large, store.read(store.get(-1)));
+
+        assertEquals(1, store.put(0, small, GuavaTimingWheel.ETERNAL));
+        assertNull(store.get(-1));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testOffHeapTier()
+    {
+        GuavaConfiguration<Integer, String> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        configuration.setTypes(Integer.class, String.class);
+        configuration.setOffHeapCapacity(1024 * 1024);
+
+        Cache<Integer, String> cache = cacheManager.createCache("offHeapCache", configuration);
+
+        GuavaCache<?, ?> guavaCache = cache.unwrap(GuavaCache.class);
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            cache.put(i, "value" + i);
+        }
+
+        assertEquals(TEST_HEAP_SIZE, guavaCache.size());
+        assertEquals(TEST_CACHE_SIZE - TEST_HEAP_SIZE, guavaCache.getOffHeapStore().size());
+
+        int entries = 0;
+
+        for (Cache.Entry<Integer, String> entry : cache)
+        {
+            assertEquals("value" + entry.getKey(), entry.getValue());
+
+            entries++;
+        }
+
+        assertEquals(TEST_CACHE_SIZE, entries);
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            assertEquals("value" + i, cache.get(i));
+        }
+
+        // nothing was lost, the entries went back and forth between the tiers
+        assertEquals(0, guavaCache.getStatistics().getEvictions());
+        // iterating counts as hits too
+        assertEquals(TEST_CACHE_SIZE * 2, guavaCache.getStatistics().getHits());
+
+        assertTrue(cache.containsKey(0));
+        assertTrue(cache.remove(0));
+        assertFalse(cache.containsKey(0));
+
+        cache.removeAll();
+
+        assertEquals(0, guavaCache.size());
+        assertEquals(0, guavaCache.getOffHeapStore().size());
+        assertFalse(cache.iterator().hasNext());
+    }
+
+    @Test(timeout = 30000L)
+    public void testRemovedEntriesStayRemoved()
+        throws Exception
+    {
+        GuavaConfiguration<Integer, String> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(Integer.class, String.class);
+        configuration.setOffHeapCapacity(1024 * 1024);
+
+        final Cache<Integer, String> cache = cacheManager.createCache("removedOffHeapCache", configuration);
+
+        int threads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+
+            // each thread writes its own keys, and floods the heap with others to push them off it
+            futures.add(executor.submit(() ->
+            {
+                for (int i = 0; i < 1000; i++)
+                {
+                    int key = (i % TEST_CACHE_SIZE) * threads + thread;
+
+                    cache.put(key, "value" + i);
+                    cache.put(-1 - (i * threads + thread), "flood" + i);
+                    cache.remove(key);
+
+                    assertFalse(cache.containsKey(key));
+                    assertNull(cache.get(key));
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        for (int key = 0; key < TEST_CACHE_SIZE * threads; key++)
+        {
+            assertFalse(cache.containsKey(key));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOffHeapCapacity()
+    {
+        new GuavaConfiguration<Integer, String>().setOffHeapCapacity(-1);
+    }
+}
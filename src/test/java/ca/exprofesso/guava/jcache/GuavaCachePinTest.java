@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaCachePinTest
+{
+    private static final int TEST_CACHE_SIZE = 100;
+    private static final int TEST_PINNED_QUOTA = 10;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_CACHE_SIZE));
+        properties.setProperty("concurrencyLevel", "1");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("pin"), getClass().getClassLoader(), properties);
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testPin()
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setTypes(Integer.class, Integer.class);
+        configuration.setStoreByValue(false);
+        configuration.setPinnedQuota(TEST_PINNED_QUOTA);
+
+        GuavaCache<Integer, Integer> cache =
+            cacheManager.createCache("pinCache", configuration).unwrap(GuavaCache.class);
+
+        // pinned before and after being put
+        for (int i = 0; i < TEST_PINNED_QUOTA / 2; i++)
+        {
+            assertTrue(cache.pin(i));
+        }
+
+        for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+        {
+            cache.put(i, i);
+        }
+
+        for (int i = TEST_PINNED_QUOTA / 2; i < TEST_PINNED_QUOTA; i++)
+        {
+            assertTrue(cache.pin(i));
+        }
+
+        assertFalse(cache.pin(TEST_PINNED_QUOTA));
+        assertEquals(TEST_PINNED_QUOTA, cache.getPinnedCount());
+
+        fill(cache);
+
+        // outside of maximumSize
+        assertEquals(TEST_CACHE_SIZE + TEST_PINNED_QUOTA, cache.size());
+
+        for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+        {
+            assertTrue(cache.isPinned(i));
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+
+        for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+        {
+            assertTrue(cache.unpin(i));
+        }
+
+        assertFalse(cache.unpin(0));
+        assertEquals(0, cache.getPinnedCount());
+
+        fill(cache);
+
+        assertEquals(TEST_CACHE_SIZE, cache.size());
+
+        for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+        {
+            assertFalse(cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void testPinWithoutQuota()
+    {
+        GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+        configuration.setStoreByValue(false);
+
+        GuavaCache<Integer, Integer> cache =
+            cacheManager.createCache("unpinnedCache", configuration).unwrap(GuavaCache.class);
+
+        assertFalse(cache.pin(0));
+        assertFalse(cache.isPinned(0));
+    }
+
+    @Test
+    public void testPinWithoutWriting()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_CACHE_SIZE));
+        properties.setProperty(GuavaCacheManager.TICKER, GuavaCacheManager.MANUAL_TICKER);
+        properties.setProperty(GuavaCacheManager.STORAGE_ENGINE + ".pinnedMapCache",
+                               GuavaCacheManager.CONCURRENT_MAP_STORAGE_ENGINE);
+
+        CacheManager manager = cachingProvider.getCacheManager(new URI("pinEngines"), getClass().getClassLoader(),
+                                                               properties);
+
+        GuavaManualTicker ticker = (GuavaManualTicker) manager.unwrap(GuavaCacheManager.class).getTicker();
+
+        for (String name : Arrays.asList("pinnedGuavaCache", "pinnedMapCache"))
+        {
+            GuavaConfiguration<Integer, Integer> configuration = new GuavaConfiguration<>();
+
+            configuration.setTypes(Integer.class, Integer.class);
+            configuration.setStoreByValue(false);
+            configuration.setPinnedQuota(TEST_PINNED_QUOTA);
+            configuration.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 10)));
+
+            GuavaCache<Integer, Integer> cache = manager.createCache(name, configuration).unwrap(GuavaCache.class);
+
+            for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+            {
+                cache.put(i, i);
+            }
+
+            ticker.advance(8, TimeUnit.SECONDS);
+
+            for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+            {
+                assertTrue(cache.pin(i));
+            }
+
+            fill(cache);
+
+            // pinned in place, on either engine
+            assertEquals(name, TEST_CACHE_SIZE + TEST_PINNED_QUOTA, cache.size());
+
+            for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+            {
+                assertEquals(name, Integer.valueOf(i), cache.get(i));
+            }
+
+            ticker.advance(5, TimeUnit.SECONDS);
+
+            // pinning is no modification
+            for (int i = 0; i < TEST_PINNED_QUOTA; i++)
+            {
+                assertNull(name, cache.get(i));
+            }
+        }
+    }
+
+    private static void fill(GuavaCache<Integer, Integer> cache)
+    {
+        for (int i = 0; i < TEST_CACHE_SIZE * 10; i++)
+        {
+            cache.put(TEST_CACHE_SIZE + i, i);
+        }
+    }
+}
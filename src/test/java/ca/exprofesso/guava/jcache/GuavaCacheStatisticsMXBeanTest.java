@@ -18,14 +18,24 @@ package ca.exprofesso.guava.jcache;
 import static org.junit.Assert.*;
 
 import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
 import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
 import javax.cache.spi.CachingProvider;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -85,6 +95,13 @@ public class GuavaCacheStatisticsMXBeanTest
             assertEquals("cache hit percentage", 0.75F, cacheHitPercentage);
             assertEquals("cache miss percentage", 0.25F, cacheMissPercentage);
 
+            statisticsCache.remove("entry1");
+            statisticsCache.remove("entry4");
+
+            assertEquals("cache gets", 4L, beanServer.getAttribute(name, "CacheGets"));
+            assertEquals("cache puts", 3L, beanServer.getAttribute(name, "CachePuts"));
+            assertEquals("cache removals", 1L, beanServer.getAttribute(name, "CacheRemovals"));
+
             beanServer.invoke(name, "clear", null, null);
 
             cacheHits = beanServer.getAttribute(name, "CacheHits");
@@ -98,4 +115,248 @@ public class GuavaCacheStatisticsMXBeanTest
             assertEquals("cache miss percentage", 0F, cacheMissPercentage);
         }
     }
+
+    @Test
+    public void testCacheRollingStatisticsBean()
+        throws Exception
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setStatisticsEnabled(true);
+
+            Cache<String, Integer> statisticsCache = cacheManager.createCache("rollingStatisticsCache", configuration);
+
+            statisticsCache.put("entry1", 1);
+            statisticsCache.put("entry2", 2);
+            statisticsCache.put("entry3", 3);
+
+            statisticsCache.get("entry1");
+            statisticsCache.get("entry2");
+            statisticsCache.get("entry3");
+            statisticsCache.get("entry4");
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheRollingStatistics.getObjectName(statisticsCache));
+
+            // clearing the cumulative statistics does not affect the windows
+            ObjectName statisticsName = new ObjectName(GuavaCacheStatisticsMXBean.getObjectName(statisticsCache));
+
+            beanServer.invoke(statisticsName, "clear", null, null);
+
+            for (String window : new String[] { "OneMinute", "FiveMinutes", "FifteenMinutes" })
+            {
+                CompositeData data = (CompositeData) beanServer.getAttribute(name, window);
+
+                assertEquals(window, 3L, data.get("hits"));
+                assertEquals(window, 1L, data.get("misses"));
+                assertEquals(window, 0.75F, data.get("hitRatio"));
+                assertEquals(window, 0.25F, data.get("missRatio"));
+                assertTrue(window, (float) data.get("hitRate") > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testEnableStatistics()
+        throws Exception
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+
+            Cache<String, Integer> statisticsCache = cacheManager.createCache("enableStatisticsCache", configuration);
+
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName name = new ObjectName(GuavaCacheStatisticsMXBean.getObjectName(statisticsCache));
+
+            statisticsCache.put("entry1", 1);
+            statisticsCache.get("entry1");
+
+            assertFalse(beanServer.isRegistered(name));
+
+            cacheManager.enableStatistics(statisticsCache.getName(), true);
+
+            assertTrue(beanServer.isRegistered(name));
+
+            statisticsCache.get("entry1");
+            statisticsCache.get("entry2");
+
+            assertEquals("cache hits", 1L, beanServer.getAttribute(name, "CacheHits"));
+            assertEquals("cache misses", 1L, beanServer.getAttribute(name, "CacheMisses"));
+
+            cacheManager.enableStatistics(statisticsCache.getName(), false);
+
+            assertFalse(beanServer.isRegistered(name));
+
+            statisticsCache.get("entry1");
+
+            cacheManager.enableStatistics(statisticsCache.getName(), true);
+
+            assertEquals("cache hits", 1L, beanServer.getAttribute(name, "CacheHits"));
+        }
+    }
+
+    @Test
+    public void testLoadsWithoutStatistics()
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(LengthCacheLoader.class));
+            configuration.setReadThrough(true);
+
+            Cache<String, Integer> loadingCache = cacheManager.createCache("loadingCache", configuration);
+
+            GuavaCacheStatistics statistics = loadingCache.unwrap(GuavaCache.class).getStatistics();
+
+            for (int i = 0; i < 10; i++)
+            {
+                loadingCache.get("entry" + i);
+            }
+
+            assertEquals(0L, statistics.snapshot().getLoadSuccesses());
+
+            cacheManager.enableStatistics(loadingCache.getName(), true);
+
+            loadingCache.get("entry10");
+
+            assertEquals(1L, statistics.snapshot().getLoadSuccesses());
+        }
+    }
+
+    @Test
+    public void testIteratorRemovals()
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setStatisticsEnabled(true);
+
+            Cache<String, Integer> iteratorCache = cacheManager.createCache("iteratorCache", configuration);
+
+            iteratorCache.put("entry1", 1);
+            iteratorCache.put("entry2", 2);
+
+            for (Iterator<Cache.Entry<String, Integer>> i = iteratorCache.iterator(); i.hasNext();)
+            {
+                i.next();
+                i.remove();
+            }
+
+            assertEquals(2L, iteratorCache.unwrap(GuavaCache.class).getStatistics().getRemovals());
+        }
+    }
+
+    @Test
+    public void testInvokeLoads()
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(LengthCacheLoader.class));
+            configuration.setReadThrough(true);
+            configuration.setStatisticsEnabled(true);
+
+            Cache<String, Integer> invokeCache = cacheManager.createCache("invokeLoadCache", configuration);
+
+            Integer value = invokeCache.invoke
+            (
+                "entry1",
+                new EntryProcessor<String, Integer, Integer>()
+                {
+                    @Override
+                    public Integer process(MutableEntry<String, Integer> entry, Object... arguments)
+                    {
+                        return entry.getValue();
+                    }
+                }
+            );
+
+            assertEquals(Integer.valueOf(6), value);
+            assertEquals(1L, invokeCache.unwrap(GuavaCache.class).getStatistics().snapshot().getLoadSuccesses());
+        }
+    }
+
+    @Test
+    public void testGetAllLoads()
+    {
+        try (CachingProvider cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName()))
+        {
+            CacheManager cacheManager = cachingProvider.getCacheManager();
+
+            MutableConfiguration<String, Integer> configuration = new MutableConfiguration<>();
+
+            configuration.setStoreByValue(false);
+            configuration.setTypes(String.class, Integer.class);
+            configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(LengthCacheLoader.class));
+            configuration.setReadThrough(true);
+            configuration.setStatisticsEnabled(true);
+
+            Cache<String, Integer> getAllCache = cacheManager.createCache("getAllLoadCache", configuration);
+
+            getAllCache.put("entry1", 1);
+
+            Map<String, Integer> values = getAllCache.getAll(new HashSet<>(Arrays.asList("entry1", "e2", "e3")));
+
+            assertEquals(3, values.size());
+
+            GuavaCache<?, ?> guavaCache = getAllCache.unwrap(GuavaCache.class);
+
+            // the missing keys are loaded in bulk, which counts as one load
+            assertEquals(1L, guavaCache.getStatistics().snapshot().getLoadSuccesses());
+            assertEquals(1L, guavaCache.getStatistics().getHits());
+            assertEquals(2L, guavaCache.getStatistics().getMisses());
+        }
+    }
+
+    public static class LengthCacheLoader
+        implements CacheLoader<String, Integer>
+    {
+        @Override
+        public Integer load(String key)
+        {
+            return key.length();
+        }
+
+        @Override
+        public Map<String, Integer> loadAll(Iterable<? extends String> keys)
+        {
+            Map<String, Integer> values = new HashMap<>();
+
+            for (String key : keys)
+            {
+                values.put(key, load(key));
+            }
+
+            return values;
+        }
+    }
 }
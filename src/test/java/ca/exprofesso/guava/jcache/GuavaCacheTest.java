@@ -17,11 +17,15 @@ package ca.exprofesso.guava.jcache;
 
 import static org.junit.Assert.*;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
@@ -32,6 +36,7 @@ import javax.cache.integration.CacheLoader;
 import javax.cache.integration.CacheLoaderException;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.EntryProcessorResult;
 import javax.cache.processor.MutableEntry;
 import javax.cache.spi.CachingProvider;
 
@@ -268,6 +273,79 @@ public class GuavaCacheTest
         assertTrue(map.isEmpty());
     }
 
+    @Test
+    public void testIteratorRemove()
+    {
+        cache.put("1", 1);
+        cache.put("2", 2);
+        cache.put("3", 3);
+
+        Iterator<Cache.Entry<String, Integer>> i = cache.iterator();
+
+        while (i.hasNext())
+        {
+            if (i.next().getValue() != 2)
+            {
+                i.remove();
+            }
+        }
+
+        assertFalse(cache.containsKey("1"));
+        assertTrue(cache.containsKey("2"));
+        assertFalse(cache.containsKey("3"));
+        assertEquals(1, cache.unwrap(GuavaCache.class).size());
+    }
+
+    @Test
+    public void testIteratorRemoveAfterReplace()
+    {
+        cache.put("1", 1);
+
+        Iterator<Cache.Entry<String, Integer>> i = cache.iterator();
+
+        assertEquals(Integer.valueOf(1), i.next().getValue());
+
+        // the value written since next() is not the one removed
+        cache.put("1", 2);
+
+        i.remove();
+
+        assertEquals(Integer.valueOf(2), cache.get("1"));
+    }
+
+    @Test
+    public void testStream()
+    {
+        for (int i = 0; i < 500; i++)
+        {
+            cache.put(String.valueOf(i), i);
+        }
+
+        GuavaCache<String, Integer> guavaCache = cache.unwrap(GuavaCache.class);
+
+        assertEquals(500, guavaCache.stream().count());
+        assertEquals(500, guavaCache.parallelStream().count());
+        assertEquals(124750, guavaCache.parallelStream().mapToInt(e -> e.getValue()).sum());
+
+        assertEquals(Long.valueOf(124750), guavaCache.mapReduce((k, v) -> v.longValue(), 0L, Long::sum));
+
+        Map<Boolean, Long> counts = guavaCache.countBy((k, v) -> (v % 2) == 0);
+
+        assertEquals(Long.valueOf(250), counts.get(Boolean.TRUE));
+        assertEquals(Long.valueOf(250), counts.get(Boolean.FALSE));
+
+        // scans are not uses of the entries, unlike iterating them
+        guavaCache.setStatisticsEnabled(true);
+
+        guavaCache.countBy((k, v) -> v);
+
+        assertEquals(0, guavaCache.getStatistics().getHits());
+
+        guavaCache.iterator().next();
+
+        assertEquals(1, guavaCache.getStatistics().getHits());
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testClosedCache()
     {
@@ -324,6 +402,47 @@ public class GuavaCacheTest
         assertEquals(Integer.valueOf(3), invokingCache.get("1"));
     }
 
+    @Test(timeout = 5000L)
+    public void testInvokeRunsOnce()
+        throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        cache.put("1", 1);
+
+        Thread invoker = new Thread(() -> cache.invoke("1", (entry, arguments) ->
+        {
+            runs.incrementAndGet();
+            started.countDown();
+
+            try
+            {
+                Thread.sleep(100L);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            entry.setValue(entry.getValue() + 1);
+
+            return null;
+        }));
+
+        invoker.start();
+
+        started.await();
+
+        // waits for the processor, which does not run again on the value written
+        cache.put("1", 10);
+
+        invoker.join();
+
+        assertEquals(1, runs.get());
+        assertEquals(Integer.valueOf(10), cache.get("1"));
+    }
+
     @Test
     public void testInvokeAll()
     {
@@ -350,8 +469,9 @@ public class GuavaCacheTest
             public Void process(MutableEntry<String, Integer> entry, Object... arguments)
                 throws EntryProcessorException
             {
-                assertTrue(entry.exists());
+                assertFalse(entry.exists());
                 assertEquals(Integer.valueOf(1), entry.getValue());
+                assertTrue(entry.exists());
                 entry.setValue(2);
                 assertEquals(Integer.valueOf(2), entry.getValue());
 
@@ -394,6 +514,189 @@ public class GuavaCacheTest
         assertFalse(invokingCache.containsKey("1"));
     }
 
+    @Test
+    public void testInvokeAllWithExceptions()
+    {
+        final EntryProcessor<String, Integer, Integer> entryProcessor = new EntryProcessor<String, Integer, Integer>()
+        {
+            @Override
+            public Integer process(MutableEntry<String, Integer> entry, Object... arguments)
+                throws EntryProcessorException
+            {
+                int value = Integer.parseInt(entry.getKey());
+
+                if ((value % 100) == 0)
+                {
+                    throw new IllegalStateException(entry.getKey());
+                }
+
+                entry.setValue(value);
+
+                return value;
+            }
+        };
+
+        Set<String> keys = new HashSet<>();
+
+        for (int i = 0; i < 500; i++)
+        {
+            keys.add(String.valueOf(i));
+        }
+
+        Map<String, EntryProcessorResult<Integer>> results = cache.invokeAll(keys, entryProcessor);
+
+        assertEquals(keys.size(), results.size());
+
+        for (String key : keys)
+        {
+            int value = Integer.parseInt(key);
+
+            if ((value % 100) == 0)
+            {
+                try
+                {
+                    results.get(key).get();
+                    fail("should have thrown an exception");
+                }
+                catch (EntryProcessorException e)
+                {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+
+                assertFalse(cache.containsKey(key));
+            }
+            else
+            {
+                assertEquals(Integer.valueOf(value), results.get(key).get());
+                assertEquals(Integer.valueOf(value), cache.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testInvokeBulk()
+    {
+        cache.put("1", 10);
+        cache.put("2", 20);
+        cache.put("3", 1);
+
+        final GuavaBulkEntryProcessor<String, Integer> entryProcessor = new GuavaBulkEntryProcessor<String, Integer>()
+        {
+            @Override
+            public void process(Collection<GuavaMutableEntry<String, Integer>> entries, Object... arguments)
+                throws EntryProcessorException
+            {
+                assertEquals(4, entries.size());
+
+                for (GuavaMutableEntry<String, Integer> entry : entries)
+                {
+                    if (!entry.exists())
+                    {
+                        continue;
+                    }
+
+                    int stock = entry.getValue() - (Integer) arguments[0];
+
+                    if (stock > 0)
+                    {
+                        entry.setValue(stock);
+                    }
+                    else
+                    {
+                        entry.remove();
+                    }
+                }
+            }
+        };
+
+        GuavaCache<String, Integer> guavaCache = cache.unwrap(GuavaCache.class);
+
+        guavaCache.getLatencies().setEnabled(true);
+        guavaCache.invokeBulk(Sets.newHashSet("1", "2", "3", "4"), entryProcessor, 1);
+
+        // as many invocations as keys
+        assertEquals(4, guavaCache.getLatencies().getInvokeLatency().getCount());
+
+        assertEquals(Integer.valueOf(9), cache.get("1"));
+        assertEquals(Integer.valueOf(19), cache.get("2"));
+        assertFalse(cache.containsKey("3"));
+        assertFalse(cache.containsKey("4"));
+    }
+
+    @Test
+    public void testInvokeReadThroughIsLazy()
+    {
+        final AtomicInteger loads = new AtomicInteger();
+
+        final CacheLoader<String, Integer> cacheLoader = new CacheLoader<String, Integer>()
+        {
+            @Override
+            public Integer load(String key)
+                throws CacheLoaderException
+            {
+                loads.incrementAndGet();
+
+                return Integer.valueOf(key);
+            }
+
+            @Override
+            public Map<String, Integer> loadAll(Iterable<? extends String> keys)
+                throws CacheLoaderException
+            {
+                throw new UnsupportedOperationException("Not supported yet.");
+            }
+        };
+
+        final EntryProcessor<String, Integer, Boolean> exists = new EntryProcessor<String, Integer, Boolean>()
+        {
+            @Override
+            public Boolean process(MutableEntry<String, Integer> entry, Object... arguments)
+                throws EntryProcessorException
+            {
+                return entry.exists();
+            }
+        };
+
+        final EntryProcessor<String, Integer, Integer> getValue = new EntryProcessor<String, Integer, Integer>()
+        {
+            @Override
+            public Integer process(MutableEntry<String, Integer> entry, Object... arguments)
+                throws EntryProcessorException
+            {
+                return entry.getValue();
+            }
+        };
+
+        MutableConfiguration<String, Integer> custom = new MutableConfiguration<>(configuration);
+
+        custom.setReadThrough(true);
+        custom.setCacheLoaderFactory
+        (
+            new Factory<CacheLoader<String, Integer>>()
+            {
+                @Override
+                public CacheLoader<String, Integer> create()
+                {
+                    return cacheLoader;
+                }
+            }
+        );
+
+        Cache<String, Integer> invokingCache = cacheManager.createCache("invokingCache", custom);
+
+        assertFalse(invokingCache.invoke("1", exists));
+        assertEquals(0, loads.get());
+        assertFalse(invokingCache.containsKey("1"));
+
+        assertEquals(Integer.valueOf(1), invokingCache.invoke("1", getValue));
+        assertEquals(1, loads.get());
+        assertTrue(invokingCache.containsKey("1"));
+
+        assertTrue(invokingCache.invoke("1", exists));
+        assertEquals(Integer.valueOf(1), invokingCache.invoke("1", getValue));
+        assertEquals(1, loads.get());
+    }
+
     @Test // org.jsr107.tck.GetTest.getAll_NullKey
     public void getAllWithNullKey()
     {
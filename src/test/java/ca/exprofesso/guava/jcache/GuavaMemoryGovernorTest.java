@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaMemoryGovernorTest
+{
+    private static final int TEST_CACHE_SIZE = 1000;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+    private GuavaMemoryGovernor memoryGovernor;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MEMORY_HIGH_WATERMARK, "0.99");
+        properties.setProperty(GuavaCacheManager.MEMORY_LOW_WATERMARK, "0.9");
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("governed"), getClass().getClassLoader(), properties);
+        memoryGovernor = cacheManager.unwrap(GuavaCacheManager.class).getMemoryGovernor();
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testShrinkAndGrow()
+    {
+        Cache<Integer, Integer> hotCache = createCache("hotCache");
+        Cache<Integer, Integer> coldCache = createCache("coldCache");
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            hotCache.get(i);
+        }
+
+        GuavaCache<?, ?> hot = hotCache.unwrap(GuavaCache.class);
+        GuavaCache<?, ?> cold = coldCache.unwrap(GuavaCache.class);
+
+        assertEquals(0.99, memoryGovernor.getHighWatermark(), 0);
+        assertEquals(0.9, memoryGovernor.getLowWatermark(), 0);
+
+        // the cold cache has no value, so it gives back as much as possible
+        assertTrue(memoryGovernor.update(1.0, 1));
+
+        assertEquals(TEST_CACHE_SIZE, hot.size());
+        assertEquals(TEST_CACHE_SIZE / 2, cold.size());
+        assertEquals(TEST_CACHE_SIZE / 2, cold.getCapacity());
+        assertEquals(TEST_CACHE_SIZE / 2, cold.getStatistics().getEvictions());
+
+        // not before another collection
+        assertTrue(memoryGovernor.update(1.0, 1));
+
+        assertEquals(TEST_CACHE_SIZE / 2, cold.size());
+
+        // the capacity is kept in between the watermarks, and enforced on the new entries
+        assertTrue(memoryGovernor.update(0.95, 2));
+
+        coldCache.put(-1, -1);
+        cold.cleanUp();
+
+        assertEquals(TEST_CACHE_SIZE / 2, cold.size());
+
+        // then released, step by step
+        assertTrue(memoryGovernor.update(0.5, 3));
+
+        assertEquals(Long.MAX_VALUE, hot.getCapacity());
+        assertEquals(TEST_CACHE_SIZE, cold.getCapacity());
+
+        assertFalse(memoryGovernor.update(0.5, 4));
+
+        assertEquals(Long.MAX_VALUE, cold.getCapacity());
+    }
+
+    @Test
+    public void testShrinkWithoutStatistics()
+    {
+        Cache<Integer, Integer> hotCache = createCache("hotCache");
+        Cache<Integer, Integer> coldCache = createCache("coldCache");
+        Cache<Integer, Integer> blindCache = createCache("blindCache", false);
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            hotCache.get(i);
+        }
+
+        assertTrue(memoryGovernor.update(1.0, 1));
+
+        // a cache without statistics misses as much as the others on average, half as much as the cold one here
+        assertEquals(TEST_CACHE_SIZE, hotCache.unwrap(GuavaCache.class).size());
+        assertEquals(TEST_CACHE_SIZE / 2, coldCache.unwrap(GuavaCache.class).size());
+        assertEquals(TEST_CACHE_SIZE * 3 / 4, blindCache.unwrap(GuavaCache.class).size());
+    }
+
+    @Test
+    public void testShrinkLeastRecentlyRead()
+    {
+        Cache<Integer, Integer> cache = createCache("lruCache", false);
+
+        GuavaCache<?, ?> guavaCache = cache.unwrap(GuavaCache.class);
+
+        assertTrue(memoryGovernor.update(1.0, 1));
+        assertEquals(TEST_CACHE_SIZE * 3 / 4, guavaCache.size());
+
+        List<Integer> read = new ArrayList<>();
+
+        for (int i = 0; i < TEST_CACHE_SIZE && read.size() < TEST_CACHE_SIZE / 10; i++)
+        {
+            if (cache.get(i) != null)
+            {
+                read.add(i);
+            }
+        }
+
+        assertTrue(memoryGovernor.update(1.0, 2));
+        assertEquals(TEST_CACHE_SIZE * 3 / 4 * 3 / 4, guavaCache.size());
+
+        // the entries read since the previous shrink are given a second chance, the others go first
+        for (Integer key : read)
+        {
+            assertTrue(cache.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testThresholdsRestored()
+        throws Exception
+    {
+        List<Long> thresholds = getThresholds();
+
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MEMORY_HIGH_WATERMARK, "0.5");
+        properties.setProperty(GuavaCacheManager.MEMORY_LOW_WATERMARK, "0.4");
+
+        CacheManager lowerManager =
+            cachingProvider.getCacheManager(new URI("lower"), getClass().getClassLoader(), properties);
+
+        // the thresholds are shared by the whole JVM, the lower ones win
+        assertNotEquals(thresholds, getThresholds());
+
+        lowerManager.close();
+
+        assertEquals(thresholds, getThresholds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWatermarks()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty(GuavaCacheManager.MEMORY_HIGH_WATERMARK, "0.5");
+        properties.setProperty(GuavaCacheManager.MEMORY_LOW_WATERMARK, "0.6");
+
+        cachingProvider.getCacheManager(new URI("invalid"), getClass().getClassLoader(), properties);
+    }
+
+    private static List<Long> getThresholds()
+    {
+        List<Long> thresholds = new ArrayList<>();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                thresholds.add(pool.getCollectionUsageThreshold());
+            }
+            else if (pool.isUsageThresholdSupported())
+            {
+                thresholds.add(pool.getUsageThreshold());
+            }
+        }
+
+        return thresholds;
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName)
+    {
+        return createCache(cacheName, true);
+    }
+
+    private Cache<Integer, Integer> createCache(String cacheName, boolean statisticsEnabled)
+    {
+        MutableConfiguration<Integer, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(statisticsEnabled);
+        configuration.setTypes(Integer.class, Integer.class);
+
+        Cache<Integer, Integer> cache = cacheManager.createCache(cacheName, configuration);
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            cache.put(i, i);
+        }
+
+        return cache;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 ExProfesso.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.exprofesso.guava.jcache;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.spi.CachingProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaStorageEngineTest
+{
+    private static final int TEST_MAXIMUM_SIZE = 10;
+    private static final int TEST_CACHE_SIZE = 100;
+
+    private CachingProvider cachingProvider;
+    private CacheManager cacheManager;
+    private GuavaManualTicker ticker;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumSize", String.valueOf(TEST_MAXIMUM_SIZE));
+        properties.setProperty(GuavaCacheManager.TICKER, GuavaCacheManager.MANUAL_TICKER);
+        properties.setProperty(GuavaCacheManager.STORAGE_ENGINE + ".referenceCache",
+                               GuavaCacheManager.CONCURRENT_MAP_STORAGE_ENGINE);
+        properties.setProperty(GuavaCacheManager.STORAGE_ENGINE + ".invalidCache", String.class.getName());
+
+        cachingProvider = Caching.getCachingProvider(GuavaCachingProvider.class.getName());
+        cacheManager = cachingProvider.getCacheManager(new URI("engines"), getClass().getClassLoader(), properties);
+        ticker = (GuavaManualTicker) cacheManager.unwrap(GuavaCacheManager.class).getTicker();
+    }
+
+    @After
+    public void close()
+    {
+        cachingProvider.close();
+    }
+
+    @Test
+    public void testConcurrentMapEngine()
+    {
+        final List<Integer> removed = new ArrayList<>();
+
+        final CacheEntryRemovedListener<Integer, Integer> removedListener =
+            new CacheEntryRemovedListener<Integer, Integer>()
+            {
+                @Override
+                public void onRemoved(Iterable<CacheEntryEvent<? extends Integer, ? extends Integer>> events)
+                    throws CacheEntryListenerException
+                {
+                    for (CacheEntryEvent<? extends Integer, ? extends Integer> event : events)
+                    {
+                        removed.add(event.getKey());
+                    }
+                }
+            };
+
+        MutableConfiguration<Integer, Integer> configuration = createConfiguration();
+
+        configuration.addCacheEntryListenerConfiguration
+        (
+            new MutableCacheEntryListenerConfiguration<>
+            (
+                new Factory<CacheEntryListener<? super Integer, ? super Integer>>()
+                {
+                    @Override
+                    public CacheEntryListener<? super Integer, ? super Integer> create()
+                    {
+                        return removedListener;
+                    }
+                },
+                null,
+                false,
+                true
+            )
+        );
+
+        Cache<Integer, Integer> referenceCache = cacheManager.createCache("referenceCache", configuration);
+        Cache<Integer, Integer> boundedCache = cacheManager.createCache("boundedCache", createConfiguration());
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            referenceCache.put(i, i);
+            boundedCache.put(i, i);
+        }
+
+        // the manager properties only bound the default engine
+        assertEquals(TEST_CACHE_SIZE, referenceCache.unwrap(GuavaCache.class).size());
+        assertEquals(TEST_MAXIMUM_SIZE, boundedCache.unwrap(GuavaCache.class).size());
+
+        assertEquals(Integer.valueOf(0), referenceCache.getAndPut(0, -1));
+        assertFalse(referenceCache.putIfAbsent(0, 0));
+        assertTrue(referenceCache.replace(0, -1, 0));
+        assertFalse(referenceCache.replace(0, -1, 0));
+        assertEquals(Integer.valueOf(1), referenceCache.invoke(1, (entry, arguments) -> entry.getValue()));
+
+        assertTrue(referenceCache.remove(0));
+        assertFalse(referenceCache.remove(1, -1));
+        assertTrue(referenceCache.remove(1, 1));
+
+        assertEquals(2, removed.size());
+
+        int entries = 0;
+
+        for (Cache.Entry<Integer, Integer> entry : referenceCache)
+        {
+            assertEquals(entry.getKey(), entry.getValue());
+
+            entries++;
+        }
+
+        assertEquals(TEST_CACHE_SIZE - 2, entries);
+
+        referenceCache.removeAll();
+
+        assertEquals(TEST_CACHE_SIZE, removed.size());
+        assertFalse(referenceCache.iterator().hasNext());
+    }
+
+    @Test
+    public void testConcurrentMapEngineExpiry()
+    {
+        MutableConfiguration<Integer, Integer> configuration = createConfiguration();
+
+        configuration.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)));
+
+        // expired by the cache itself, since the engine does not
+        Cache<Integer, Integer> referenceCache = cacheManager.createCache("referenceCache", configuration);
+
+        referenceCache.put(1, 1);
+
+        ticker.advance(40, TimeUnit.MILLISECONDS);
+
+        referenceCache.put(1, 2);
+
+        ticker.advance(40, TimeUnit.MILLISECONDS);
+
+        assertEquals(Integer.valueOf(2), referenceCache.get(1));
+
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+
+        assertNull(referenceCache.get(1));
+    }
+
+    @Test
+    public void testConcurrentMapEngineLoader()
+    {
+        MutableConfiguration<Integer, Integer> configuration = createConfiguration();
+
+        configuration.setReadThrough(true);
+        configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(DoublingCacheLoader.class));
+
+        Cache<Integer, Integer> referenceCache = cacheManager.createCache("referenceCache", configuration);
+
+        for (int i = 0; i < TEST_CACHE_SIZE; i++)
+        {
+            assertEquals(Integer.valueOf(i * 2), referenceCache.get(i));
+        }
+
+        assertEquals(TEST_CACHE_SIZE, referenceCache.unwrap(GuavaCache.class).size());
+
+        Set<Integer> keys = new HashSet<>();
+
+        for (int i = 0; i < TEST_CACHE_SIZE * 2; i++)
+        {
+            keys.add(i);
+        }
+
+        Map<Integer, Integer> values = referenceCache.getAll(keys);
+
+        assertEquals(TEST_CACHE_SIZE * 2, values.size());
+        assertEquals(Integer.valueOf((TEST_CACHE_SIZE * 2 - 1) * 2), values.get(TEST_CACHE_SIZE * 2 - 1));
+    }
+
+    @Test
+    public void testConcurrentMapEngineNestedLoad()
+    {
+        MutableConfiguration<Integer, Integer> configuration = createConfiguration();
+
+        configuration.setReadThrough(true);
+        configuration.setCacheLoaderFactory(FactoryBuilder.factoryOf(NestedCacheLoader.class));
+
+        Cache<Integer, Integer> referenceCache = cacheManager.createCache("referenceCache", configuration);
+
+        NestedCacheLoader.cache = referenceCache;
+
+        try
+        {
+            // 17 loads 1 through the cache, both keys in the same bin of the map
+            assertEquals(Integer.valueOf(2), referenceCache.get(17));
+            assertEquals(Integer.valueOf(1), referenceCache.get(1));
+        }
+        finally
+        {
+            NestedCacheLoader.cache = null;
+        }
+    }
+
+    @Test
+    public void testConcurrentMapEngineWeight()
+        throws Exception
+    {
+        Properties properties = new Properties();
+
+        properties.setProperty("maximumWeight", String.valueOf(Long.MAX_VALUE));
+        properties.setProperty(GuavaCacheManager.STORAGE_ENGINE + ".weightedCache",
+                               GuavaCacheManager.CONCURRENT_MAP_STORAGE_ENGINE);
+
+        CacheManager weightedManager = cachingProvider.getCacheManager(new URI("weightedEngines"),
+                                                                       getClass().getClassLoader(), properties);
+
+        Cache<Integer, String> weightedCache = weightedManager.createCache("weightedCache",
+            new MutableConfiguration<Integer, String>().setStoreByValue(false).setTypes(Integer.class, String.class));
+
+        GuavaCache<?, ?> guavaCache = weightedCache.unwrap(GuavaCache.class);
+
+        int threads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        // concurrent writes of the same keys, each thread with values of its own size
+        for (int t = 0; t < threads; t++)
+        {
+            final StringBuilder value = new StringBuilder();
+
+            for (int i = 0; i <= t * 100; i++)
+            {
+                value.append('x');
+            }
+
+            futures.add(executor.submit(() ->
+            {
+                for (int i = 0; i < 10000; i++)
+                {
+                    weightedCache.put(i % 2, value.toString());
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        long weight = 0L;
+
+        for (Cache.Entry<Integer, String> entry : weightedCache)
+        {
+            weight += GuavaSizeEstimator.INSTANCE.weigh(entry.getKey(), entry.getValue());
+        }
+
+        // only the values stored are charged
+        assertEquals(weight, guavaCache.getTotalWeight());
+
+        weightedCache.removeAll();
+
+        assertEquals(0L, guavaCache.getTotalWeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStorageEngine()
+    {
+        cacheManager.createCache("invalidCache", createConfiguration());
+    }
+
+    private MutableConfiguration<Integer, Integer> createConfiguration()
+    {
+        MutableConfiguration<Integer, Integer> configuration = new MutableConfiguration<>();
+
+        configuration.setStoreByValue(false);
+        configuration.setTypes(Integer.class, Integer.class);
+
+        return configuration;
+    }
+
+    public static class NestedCacheLoader
+        implements CacheLoader<Integer, Integer>
+    {
+        private static volatile Cache<Integer, Integer> cache;
+
+        @Override
+        public Integer load(Integer key)
+            throws CacheLoaderException
+        {
+            return key < 16 ? 1 : cache.get(key - 16) + 1;
+        }
+
+        @Override
+        public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys)
+            throws CacheLoaderException
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static class DoublingCacheLoader
+        implements CacheLoader<Integer, Integer>
+    {
+        @Override
+        public Integer load(Integer key)
+            throws CacheLoaderException
+        {
+            return key * 2;
+        }
+
+        @Override
+        public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys)
+            throws CacheLoaderException
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
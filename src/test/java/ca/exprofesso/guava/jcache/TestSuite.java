@@ -25,11 +25,21 @@ import org.junit.runners.Suite;
     GuavaCacheManagerTest.class,
     GuavaCacheTest.class,
     GuavaCacheEventTest.class,
+    GuavaCacheExpiryTest.class,
     GuavaCacheLoaderTest.class,
     GuavaCacheMXBeanTest.class,
     GuavaCacheStatisticsMXBeanTest.class,
+    GuavaCacheLatenciesMXBeanTest.class,
+    GuavaMemoryGovernorTest.class,
+    GuavaCacheBudgetTest.class,
+    GuavaCacheOffHeapTest.class,
+    GuavaStorageEngineTest.class,
+    GuavaCacheAdmissionTest.class,
+    GuavaCacheCostTest.class,
+    GuavaCachePinTest.class,
     GuavaCacheConcurrentTest.class,
-    GuavaCacheAtomicEntryProcessorTest.class
+    GuavaCacheAtomicEntryProcessorTest.class,
+    GuavaCacheInvokeBenchmarkTest.class
 })
 public class TestSuite
 {